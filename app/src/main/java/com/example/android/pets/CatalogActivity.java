@@ -1,35 +1,79 @@
 package com.example.android.pets;
 
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
-import android.database.Cursor;
+import android.content.OperationApplicationException;
 import android.databinding.DataBindingUtil;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.v4.content.CursorLoader;
+import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
+import android.widget.Toast;
 
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetCatalogLoader;
 import com.example.android.pets.data.PetContract.PetEntry;
-import com.example.android.pets.data.PetCursorAdapter;
+import com.example.android.pets.data.PetImporter;
+import com.example.android.pets.data.PetLoadGenerator;
+import com.example.android.pets.data.PetListAdapter;
+import com.example.android.pets.data.PetThumbnailLoader;
+import com.example.android.pets.data.PetWriteQueue;
 import com.example.android.pets.databinding.ActivityCatalogBinding;
 
-import static android.widget.AdapterView.OnItemClickListener;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.ref.WeakReference;
+import java.util.List;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements android.support.v4.app.LoaderManager.LoaderCallbacks<Cursor> {
+public class CatalogActivity extends AppCompatActivity implements
+        android.support.v4.app.LoaderManager.LoaderCallbacks<PetCatalogLoader.Window> {
+
+    private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
 
     private static final int PET_LOADER_ID = 0;
-    PetCursorAdapter petCursorAdapter;
+
+    private static final int REQUEST_IMPORT = 1;
+
+    /**
+     * The catalog shows a window of a few pages around the scroll position, so the cursor stays
+     * small no matter how many pets are stored. The window moves by a page at a time.
+     */
+    private static final int PAGE_SIZE = 50;
+    private static final int WINDOW_SIZE = 3 * PAGE_SIZE;
+
+    //  Loader arguments describing where the window starts or ends
+    private static final String ARG_AFTER_ID = "after_id";
+    private static final String ARG_BEFORE_ID = "before_id";
+    private static final String ARG_AT_END = "at_end";
+    private static final String STATE_WINDOW = "window";
+
+    PetListAdapter petListAdapter;
+    PetThumbnailLoader thumbnailLoader;
+    LinearLayoutManager layoutManager;
     ActivityCatalogBinding binding;
 
+    private Bundle windowArgs;
+    private boolean windowAtTop;
+    private boolean windowAtEnd;
+    private boolean loadingWindow;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -44,25 +88,87 @@ public class CatalogActivity extends AppCompatActivity implements android.suppor
                 startActivity(intent);
             }
         });
-//        Show empty view if list has 0 items
-        binding.listViewPet.setEmptyView(binding.emptyView);
-
-//        Initialize empty Adapter for Loader to populate
-        petCursorAdapter = new PetCursorAdapter(this, null);
-        binding.listViewPet.setAdapter(petCursorAdapter);
-
+//        Initialize empty Adapter for Loader to populate.
 //        Add listener to the list of pets. Choosing one item allows user to edit pet's entry
-        binding.listViewPet.setOnItemClickListener(new OnItemClickListener() {
+        thumbnailLoader = PetThumbnailLoader.getInstance(this);
+        petListAdapter = new PetListAdapter(thumbnailLoader, new PetListAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onPetClick(long id) {
                 Intent petIntent = new Intent(CatalogActivity.this, EditorActivity.class);
 //                Pass uri to pet
                 petIntent.setData(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id));
                 startActivity(petIntent);
             }
         });
+        layoutManager = new LinearLayoutManager(this);
+        binding.listViewPet.setLayoutManager(layoutManager);
+        binding.listViewPet.setAdapter(petListAdapter);
+
+//        Move the window when the user scrolls close to one of its ends
+        binding.listViewPet.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                moveWindowIfNeeded(layoutManager.findFirstVisibleItemPosition(),
+                        layoutManager.findLastVisibleItemPosition() + 1,
+                        petListAdapter.getItemCount());
+            }
+        });
         // Prepare the loader
-        getSupportLoaderManager().initLoader(PET_LOADER_ID, null, this);
+        if (savedInstanceState != null) {
+            windowArgs = savedInstanceState.getBundle(STATE_WINDOW);
+        }
+        loadingWindow = true;
+        getSupportLoaderManager().initLoader(PET_LOADER_ID, windowArgs, this);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBundle(STATE_WINDOW, windowArgs);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+//        Removing the adapter recycles the rows, which cancels their thumbnails
+        binding.listViewPet.setAdapter(null);
+    }
+
+    /**
+     * Load the next window when the visible rows get close to an end of the current one.
+     * The new window keeps all but one page of the current rows, so the visible rows stay loaded.
+     */
+    private void moveWindowIfNeeded(int firstVisible, int lastVisible, int count) {
+        if (loadingWindow || count == 0) {
+            return;
+        }
+        int keep = WINDOW_SIZE - PAGE_SIZE;
+        Bundle args = new Bundle();
+        if (!windowAtEnd && lastVisible >= count - PAGE_SIZE / 2) {
+//            Drop rows from the top and load a page below
+            int firstKept = Math.max(0, count - keep);
+            long afterId = firstKept == 0
+                    ? petListAdapter.getItemId(0) - 1
+                    : petListAdapter.getItemId(firstKept - 1);
+            args.putLong(ARG_AFTER_ID, afterId);
+        } else if (!windowAtTop && firstVisible < PAGE_SIZE / 2) {
+//            Drop rows from the bottom and load a page above
+            if (count > keep) {
+                args.putLong(ARG_BEFORE_ID, petListAdapter.getItemId(keep));
+            } else {
+                args.putLong(ARG_BEFORE_ID, petListAdapter.getItemId(count - 1) + 1);
+                args.putBoolean(ARG_AT_END, windowAtEnd);
+            }
+        } else {
+            return;
+        }
+        loadWindow(args);
+    }
+
+    private void loadWindow(Bundle args) {
+        windowArgs = args;
+        loadingWindow = true;
+        getSupportLoaderManager().restartLoader(PET_LOADER_ID, args, this);
     }
 
     @Override
@@ -70,6 +176,8 @@ public class CatalogActivity extends AppCompatActivity implements android.suppor
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+//        The load test is only meant for debug builds
+        menu.findItem(R.id.action_run_load_test).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -82,15 +190,164 @@ public class CatalogActivity extends AppCompatActivity implements android.suppor
                 insertPet();
 //                displayDatabaseInfo();
                 return true;
+            // Respond to a click on the "Import pets" menu option, let the user pick a CSV file
+            case R.id.action_import_pets:
+                Intent importIntent = new Intent(Intent.ACTION_GET_CONTENT);
+                importIntent.setType("text/*");
+                importIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(importIntent, REQUEST_IMPORT);
+                return true;
+            // Respond to a click on the "Run load test" menu option of debug builds
+            case R.id.action_run_load_test:
+                new LoadTestTask(this).execute();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
-                getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
+                PetWriteQueue.getInstance(this).delete(PetEntry.CONTENT_URI, null);
 //                displayDatabaseInfo();
                 return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            new ImportTask(this, data.getData()).execute();
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Imports pets from a CSV file in the background and shows the progress as subtitle.
+     * Importing the same file again after the app was killed continues where it stopped.
+     */
+    private static class ImportTask extends AsyncTask<Void, Integer, PetImporter.Result> {
+        private final WeakReference<CatalogActivity> activityReference;
+        private final ContentResolver resolver;
+        private final Uri fileUri;
+
+        ImportTask(CatalogActivity activity, Uri fileUri) {
+            this.activityReference = new WeakReference<>(activity);
+            this.resolver = activity.getContentResolver();
+            this.fileUri = fileUri;
+        }
+
+        @Override
+        protected PetImporter.Result doInBackground(Void... params) {
+            PetImporter importer = new PetImporter(resolver, fileUri.toString(), PetImporter.DEFAULT_BATCH_SIZE,
+                    new PetImporter.Listener() {
+                        @Override
+                        public void onProgress(int rowsDone, int rowsImported, int rowsRejected) {
+                            publishProgress(rowsDone);
+                        }
+
+                        @Override
+                        public void onRowRejected(int row, String reason) {
+                            Log.w(LOG_TAG, "Row " + row + " of " + fileUri + " rejected: " + reason);
+                        }
+                    });
+            try {
+                InputStream in = resolver.openInputStream(fileUri);
+                if (in == null) {
+                    return null;
+                }
+                try {
+                    return importer.importFrom(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+                } finally {
+                    in.close();
+                }
+            } catch (IOException | RemoteException | OperationApplicationException | RuntimeException e) {
+                Log.e(LOG_TAG, "Cannot import " + fileUri, e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... rowsDone) {
+            CatalogActivity activity = activityReference.get();
+            if (activity == null) {
+                return;
+            }
+            ActionBar actionBar = activity.getSupportActionBar();
+            if (actionBar != null) {
+                actionBar.setSubtitle(activity.getString(R.string.import_progress, rowsDone[0]));
+            }
+        }
+
+        @Override
+        protected void onPostExecute(PetImporter.Result result) {
+            CatalogActivity activity = activityReference.get();
+            if (activity == null) {
+                return;
+            }
+            ActionBar actionBar = activity.getSupportActionBar();
+            if (actionBar != null) {
+                actionBar.setSubtitle(null);
+            }
+            if (result == null) {
+                Toast.makeText(activity, R.string.import_failed, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(activity, activity.getString(R.string.import_finished,
+                        result.rowsImported, result.rowsRejected), Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
+    /**
+     * Runs the load generator with its default mix in the background and logs the report.
+     */
+    private static class LoadTestTask extends AsyncTask<Void, Void, PetLoadGenerator.Report> {
+        private final WeakReference<CatalogActivity> activityReference;
+        private final ContentResolver resolver;
+
+        LoadTestTask(CatalogActivity activity) {
+            this.activityReference = new WeakReference<>(activity);
+            this.resolver = activity.getContentResolver();
+        }
+
+        @Override
+        protected void onPreExecute() {
+            CatalogActivity activity = activityReference.get();
+            ActionBar actionBar = activity == null ? null : activity.getSupportActionBar();
+            if (actionBar != null) {
+                actionBar.setSubtitle(R.string.load_test_running);
+            }
+        }
+
+        @Override
+        protected PetLoadGenerator.Report doInBackground(Void... params) {
+            try {
+                return new PetLoadGenerator(resolver, new PetLoadGenerator.Config()).run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Load test failed", e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(PetLoadGenerator.Report report) {
+            CatalogActivity activity = activityReference.get();
+            if (activity == null) {
+                return;
+            }
+            ActionBar actionBar = activity.getSupportActionBar();
+            if (actionBar != null) {
+                actionBar.setSubtitle(null);
+            }
+            if (report == null) {
+                Toast.makeText(activity, R.string.load_test_failed, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(activity, activity.getString(R.string.load_test_finished, report.throughput(),
+                        report.busyErrors + report.otherErrors), Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
     private void insertPet() {
         String name = "Toto";
         String breed = "Terrier";
@@ -104,35 +361,51 @@ public class CatalogActivity extends AppCompatActivity implements android.suppor
         values.put(PetEntry.COLUMN_PET_GENDER, gender);
         values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
 // Insert the new row
-        getContentResolver().insert(PetEntry.CONTENT_URI, values);
+        PetWriteQueue.getInstance(this).insert(PetEntry.CONTENT_URI, values, null);
 
     }
 
     @NonNull
     @Override
-    public android.support.v4.content.Loader<Cursor> onCreateLoader(int id, @Nullable Bundle args) {
-//        Create projection of columns which we are interested in.
-        String[] projection = {PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED};
-
-        // Now create and return a CursorLoader that will take care of
-        // creating a Cursor for the data being displayed.
-        return new CursorLoader(this, PetEntry.CONTENT_URI,
-                projection,
-                null,
-                null,
-                null);
+    public android.support.v4.content.Loader<PetCatalogLoader.Window> onCreateLoader(int id, @Nullable Bundle args) {
+//        Load only the current window of the catalog
+        Uri windowUri;
+        if (args != null && args.containsKey(ARG_AFTER_ID)) {
+            windowUri = PetEntry.buildPageAfterUri(WINDOW_SIZE, args.getLong(ARG_AFTER_ID));
+        } else if (args != null && args.containsKey(ARG_BEFORE_ID)) {
+            windowUri = PetEntry.buildPageBeforeUri(WINDOW_SIZE, args.getLong(ARG_BEFORE_ID));
+        } else {
+            windowUri = PetEntry.buildPageUri(WINDOW_SIZE);
+        }
+
+        // Now create and return a loader that reads the window and then keeps it up to date
+        // from the change log.
+        return new PetCatalogLoader(this, windowUri, args != null && args.getBoolean(ARG_AT_END));
     }
 
     @Override
-    public void onLoadFinished(@NonNull android.support.v4.content.Loader<Cursor> loader, Cursor data) {
-        petCursorAdapter.swapCursor(data);
+    public void onLoadFinished(@NonNull android.support.v4.content.Loader<PetCatalogLoader.Window> loader,
+                               PetCatalogLoader.Window data) {
+        loadingWindow = false;
+        List<Pet> pets = data.pets;
+//        The window may be empty after deleting pets, start again from the top then
+        if (pets.isEmpty() && windowArgs != null) {
+            loadWindow(null);
+            return;
+        }
+        windowAtTop = data.atTop;
+        windowAtEnd = data.atEnd;
+
+//        The adapter diffs the window with the current list in the background
+//        and keeps the visible pets in place.
+        petListAdapter.submitList(pets);
+//        Show empty view if list has 0 items
+        binding.emptyView.setVisibility(pets.isEmpty() ? View.VISIBLE : View.GONE);
     }
 
     @Override
-    public void onLoaderReset(@NonNull android.support.v4.content.Loader<Cursor> loader) {
-        petCursorAdapter.swapCursor(null);
+    public void onLoaderReset(@NonNull android.support.v4.content.Loader<PetCatalogLoader.Window> loader) {
+        petListAdapter.submitList(null);
     }
 
 }
\ No newline at end of file
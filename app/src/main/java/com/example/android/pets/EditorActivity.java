@@ -16,18 +16,28 @@
 package com.example.android.pets;
 
 import android.app.AlertDialog;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.databinding.DataBindingUtil;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NavUtils;
 import android.support.v4.content.CursorLoader;
 import android.support.v7.app.AppCompatActivity;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
@@ -36,8 +46,15 @@ import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Toast;
 
+import com.example.android.pets.data.PetContract.DraftEntry;
+import com.example.android.pets.data.PetThumbnailLoader;
+import com.example.android.pets.data.PetWriteQueue;
 import com.example.android.pets.databinding.ActivityEditorBinding;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import static com.example.android.pets.data.PetContract.PetEntry;
 
 /**
@@ -46,11 +63,60 @@ import static com.example.android.pets.data.PetContract.PetEntry;
 public class EditorActivity extends AppCompatActivity implements
         android.support.v4.app.LoaderManager.LoaderCallbacks<Cursor> {
 
+    private static final String LOG_TAG = EditorActivity.class.getSimpleName();
+
     private static final int PET_LOADER_ID = 0;
+    private static final int DRAFT_LOADER_ID = 1;
+
+    private static final int REQUEST_PHOTO = 1;
+
+    /**
+     * The draft is written at most once per interval, however fast the user types.
+     */
+    private static final long DRAFT_SAVE_INTERVAL_MILLIS = 1000;
+
+    private static final String STATE_FIELDS_FILLED = "fields_filled";
+
     private ActivityEditorBinding binding;
+    private PetThumbnailLoader thumbnailLoader;
     private boolean petHasChanged = false;
 
     private Uri petUri;
+    private Uri draftUri;
+
+    //  Pet and draft are loaded independently, the fields are filled once both are there
+    private ContentValues loadedPet;
+    private ContentValues loadedDraft;
+    private boolean petLoaded;
+    private boolean draftLoaded;
+    private boolean fieldsFilled;
+    private boolean fillingFields;
+
+    private final Handler draftHandler = new Handler();
+    private boolean draftSaveScheduled;
+    private boolean draftDiscarded;
+    private final Runnable saveDraftRunnable = new Runnable() {
+        @Override
+        public void run() {
+            draftSaveScheduled = false;
+            saveDraft();
+        }
+    };
+
+    private final TextWatcher draftWatcher = new TextWatcher() {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            onInputChanged();
+        }
+    };
     private View.OnTouchListener touchListener = new View.OnTouchListener() {
         @Override
         public boolean onTouch(View view, MotionEvent motionEvent) {
@@ -70,10 +136,16 @@ public class EditorActivity extends AppCompatActivity implements
 
 //        Get uri from intent and change activity title accordingly
         petUri = getIntent().getData();
+        draftUri = DraftEntry.buildDraftUri(petUri != null ? ContentUris.parseId(petUri) : DraftEntry.NEW_PET_ID);
+//        After a configuration change the views restore their own content
+        fieldsFilled = savedInstanceState != null && savedInstanceState.getBoolean(STATE_FIELDS_FILLED);
+        getSupportLoaderManager().initLoader(DRAFT_LOADER_ID, null, this);
 
         if (petUri != null) {
             setTitle(getString(R.string.editor_activity_title_edit_pet));
             getSupportLoaderManager().initLoader(PET_LOADER_ID, null, this);
+//            Photos are stored with the pet, so only saved pets can have one
+            binding.containerPhoto.setVisibility(View.VISIBLE);
             // Invalidate the options menu, so the "Delete" menu option can be hidden.
             // (It doesn't make sense to delete a pet that hasn't been created yet.)
             invalidateOptionsMenu();
@@ -82,11 +154,151 @@ public class EditorActivity extends AppCompatActivity implements
         }
 
         setupSpinner();
+        thumbnailLoader = PetThumbnailLoader.getInstance(this);
+        binding.photo.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent photoIntent = new Intent(Intent.ACTION_GET_CONTENT);
+                photoIntent.setType("image/*");
+                photoIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(photoIntent, REQUEST_PHOTO);
+            }
+        });
 
         binding.editPetName.setOnTouchListener(touchListener);
         binding.editPetBreed.setOnTouchListener(touchListener);
         binding.editPetWeight.setOnTouchListener(touchListener);
         binding.spinnerGender.setOnTouchListener(touchListener);
+        binding.editPetName.addTextChangedListener(draftWatcher);
+        binding.editPetBreed.addTextChangedListener(draftWatcher);
+        binding.editPetWeight.addTextChangedListener(draftWatcher);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_FIELDS_FILLED, fieldsFilled);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+//        The process may be killed while in the background, so write a pending draft now
+        if (draftSaveScheduled) {
+            draftHandler.removeCallbacks(saveDraftRunnable);
+            draftSaveScheduled = false;
+            saveDraft();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        thumbnailLoader.cancel(binding.photo);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_PHOTO && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            new SavePhotoTask(this, data.getData(), PetEntry.buildPhotoUri(ContentUris.parseId(petUri)))
+                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Copies the chosen image to the photo of the pet in the background. The provider scales it
+     * and makes the thumbnail, the pet loader then shows the new photo.
+     */
+    private static class SavePhotoTask extends AsyncTask<Void, Void, Boolean> {
+        private final Context context;
+        private final ContentResolver resolver;
+        private final Uri imageUri;
+        private final Uri photoUri;
+
+        SavePhotoTask(Context context, Uri imageUri, Uri photoUri) {
+            this.context = context.getApplicationContext();
+            this.resolver = context.getContentResolver();
+            this.imageUri = imageUri;
+            this.photoUri = photoUri;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            try {
+                InputStream in = resolver.openInputStream(imageUri);
+                if (in == null) {
+                    return false;
+                }
+                try {
+                    OutputStream out = resolver.openOutputStream(photoUri);
+                    if (out == null) {
+                        return false;
+                    }
+                    try {
+                        byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                        }
+                    } finally {
+                        out.close();
+                    }
+                } finally {
+                    in.close();
+                }
+                return true;
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "Cannot save " + imageUri + " as " + photoUri, e);
+                return false;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean success) {
+            if (!success) {
+                Toast.makeText(context, R.string.editor_photo_failed, Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
+    /**
+     * Schedule a draft save when the user changed the input, unless one is already scheduled.
+     * Changes made by the editor itself, like filling the fields, don't count.
+     */
+    private void onInputChanged() {
+        if (!petHasChanged || fillingFields || !fieldsFilled || draftDiscarded || draftSaveScheduled) {
+            return;
+        }
+        draftSaveScheduled = true;
+        draftHandler.postDelayed(saveDraftRunnable, DRAFT_SAVE_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Queue a write of the current input as draft. The write queue runs it in the background.
+     */
+    private void saveDraft() {
+        if (draftDiscarded) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(DraftEntry.COLUMN_PET_ID, ContentUris.parseId(draftUri));
+        values.put(DraftEntry.COLUMN_PET_NAME, binding.editPetName.getText().toString());
+        values.put(DraftEntry.COLUMN_PET_BREED, binding.editPetBreed.getText().toString());
+        values.put(DraftEntry.COLUMN_PET_GENDER, binding.spinnerGender.getSelectedItemPosition());
+        values.put(DraftEntry.COLUMN_PET_WEIGHT, binding.editPetWeight.getText().toString());
+        PetWriteQueue.getInstance(this).insert(DraftEntry.CONTENT_URI, values, null);
+    }
+
+    /**
+     * Drop the draft, once the pet was saved or deleted or the user discarded the changes.
+     */
+    private void discardDraft() {
+        draftDiscarded = true;
+        draftHandler.removeCallbacks(saveDraftRunnable);
+        draftSaveScheduled = false;
+        PetWriteQueue.getInstance(this).delete(draftUri, null);
     }
 
     /**
@@ -108,6 +320,7 @@ public class EditorActivity extends AppCompatActivity implements
         binding.spinnerGender.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                onInputChanged();
                 String selection = (String) parent.getItemAtPosition(position);
                 if (!TextUtils.isEmpty(selection)) {
                     if (selection.equals(getString(R.string.gender_male))) {
@@ -130,9 +343,10 @@ public class EditorActivity extends AppCompatActivity implements
 
 
     /**
-     * Get user input from editor and save pet into database.
+     * Get user input from editor and queue the pet to be saved into database. Return false if it
+     * can't be saved because the name is missing, true once it is queued.
      */
-    private void savePet() {
+    private boolean savePet() {
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
         String name = binding.editPetName.getText().toString().trim();
@@ -141,9 +355,10 @@ public class EditorActivity extends AppCompatActivity implements
         String weightField = binding.editPetWeight.getText().toString().trim();
         int weight = weightField.isEmpty() ? 0 : Integer.parseInt(weightField);
 
-//      Do nothing, and quit the activity when empty name is passed
+//      A pet requires a name, keep editing until it has one
         if (TextUtils.isEmpty(name)) {
-            return;
+            binding.editPetName.setError(getString(R.string.editor_name_required));
+            return false;
         }
         ContentValues values = new ContentValues();
         values.put(PetEntry.COLUMN_PET_NAME, name);
@@ -158,33 +373,41 @@ public class EditorActivity extends AppCompatActivity implements
 //        Insert new pet into the database
             insertPet(values);
         }
-
+        return true;
     }
 
+    /**
+     * Queue the insertion of the pet. The editor doesn't wait for the database, the toast is shown
+     * when the write has finished.
+     */
     private void insertPet(ContentValues values) {
-        Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-        // Show a toast message depending on whether or not the insertion was successful
-        if (newUri == null) {
-            // If the new content URI is null, then there was an error with insertion.
-            Toast.makeText(this, getString(R.string.editor_insert_pet_failed),
-                    Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, the insertion was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.editor_save_pet_successful),
-                    Toast.LENGTH_SHORT).show();
-        }
+        PetWriteQueue.getInstance(this).insert(PetEntry.CONTENT_URI, values,
+                new ToastCallback(this, R.string.editor_save_pet_successful, R.string.editor_insert_pet_failed));
     }
 
     private void updatePet(ContentValues values, Uri currentPetURI) {
-        int rowsUpdated = getContentResolver().update(currentPetURI, values, null, null);
-        // Show a toast message depending on whether or not the update was successful
-        if (rowsUpdated == 0) {
-            // If the new content URI is null, then there was an error with update.
-            Toast.makeText(this, getString(R.string.editor_insert_pet_failed),
-                    Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, the update was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.editor_save_pet_successful),
+        PetWriteQueue.getInstance(this).update(currentPetURI, values,
+                new ToastCallback(this, R.string.editor_save_pet_successful, R.string.editor_update_pet_failed));
+    }
+
+    /**
+     * Shows a toast depending on whether or not a write was successful. It only keeps the
+     * application context, the editor is usually finished when the write completes.
+     */
+    private static class ToastCallback implements PetWriteQueue.Callback {
+        private final Context context;
+        private final int successMessage;
+        private final int failureMessage;
+
+        ToastCallback(Context context, int successMessage, int failureMessage) {
+            this.context = context.getApplicationContext();
+            this.successMessage = successMessage;
+            this.failureMessage = failureMessage;
+        }
+
+        @Override
+        public void onWriteFinished(boolean success, Uri uri) {
+            Toast.makeText(context, context.getString(success ? successMessage : failureMessage),
                     Toast.LENGTH_SHORT).show();
         }
     }
@@ -203,10 +426,11 @@ public class EditorActivity extends AppCompatActivity implements
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save pet to database
-                savePet();
-                // Exit activity
-                finish();
+                // Save pet to database, and exit activity once it is on its way
+                if (savePet()) {
+                    discardDraft();
+                    finish();
+                }
                 return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
@@ -230,6 +454,7 @@ public class EditorActivity extends AppCompatActivity implements
                             @Override
                             public void onClick(DialogInterface dialogInterface, int i) {
                                 // User clicked "Discard" button, navigate to parent activity.
+                                discardDraft();
                                 NavUtils.navigateUpFromSameTask(EditorActivity.this);
                             }
                         };
@@ -270,6 +495,7 @@ public class EditorActivity extends AppCompatActivity implements
                     @Override
                     public void onClick(DialogInterface dialogInterface, int i) {
                         // User clicked "Discard" button, close the current activity.
+                        discardDraft();
                         finish();
                     }
                 };
@@ -281,12 +507,16 @@ public class EditorActivity extends AppCompatActivity implements
     @NonNull
     @Override
     public android.support.v4.content.Loader<Cursor> onCreateLoader(int id, @Nullable Bundle args) {
+        if (id == DRAFT_LOADER_ID) {
+            return new CursorLoader(this, draftUri, null, null, null, null);
+        }
 //        Create projection of columns which we are interested in.
         String[] projection = {PetEntry._ID,
                 PetEntry.COLUMN_PET_NAME,
                 PetEntry.COLUMN_PET_BREED,
                 PetEntry.COLUMN_PET_GENDER,
-                PetEntry.COLUMN_PET_WEIGHT};
+                PetEntry.COLUMN_PET_WEIGHT,
+                PetEntry.COLUMN_PET_PHOTO_VERSION};
 
         // Now create and return a CursorLoader that will take care of
         // creating a Cursor for the data being displayed.
@@ -299,21 +529,65 @@ public class EditorActivity extends AppCompatActivity implements
 
     @Override
     public void onLoadFinished(@NonNull android.support.v4.content.Loader<Cursor> loader, Cursor cursor) {
+        ContentValues values = null;
         if (cursor.moveToFirst()) {
-            binding.editPetName.setText(cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME)));
-            binding.editPetBreed.setText(cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED)));
-            binding.spinnerGender.setSelection(cursor.getInt(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER)));
-            binding.editPetWeight.setText(String.valueOf(cursor.getInt(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT))));
+            values = new ContentValues();
+            DatabaseUtils.cursorRowToContentValues(cursor, values);
+        }
+        if (loader.getId() == DRAFT_LOADER_ID) {
+            loadedDraft = values;
+            draftLoaded = true;
+        } else {
+            loadedPet = values;
+            petLoaded = true;
+//            The photo isn't part of the input, it is shown whenever it changes
+            if (values != null) {
+                thumbnailLoader.load(ContentUris.parseId(petUri),
+                        values.getAsLong(PetEntry.COLUMN_PET_PHOTO_VERSION), binding.photo);
+            }
+        }
+        fillFieldsIfLoaded();
+    }
+
+    /**
+     * Fill the fields from the pet, then from the draft on top of it. This only happens once,
+     * later changes of the pet don't overwrite what the user typed.
+     */
+    private void fillFieldsIfLoaded() {
+        if (fieldsFilled || !draftLoaded || (petUri != null && !petLoaded)) {
+            return;
         }
+        fillingFields = true;
+        if (loadedPet != null) {
+            binding.editPetName.setText(loadedPet.getAsString(PetEntry.COLUMN_PET_NAME));
+            binding.editPetBreed.setText(loadedPet.getAsString(PetEntry.COLUMN_PET_BREED));
+            binding.spinnerGender.setSelection(loadedPet.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+            binding.editPetWeight.setText(loadedPet.getAsString(PetEntry.COLUMN_PET_WEIGHT));
+        }
+        if (loadedDraft != null) {
+            binding.editPetName.setText(loadedDraft.getAsString(DraftEntry.COLUMN_PET_NAME));
+            binding.editPetBreed.setText(loadedDraft.getAsString(DraftEntry.COLUMN_PET_BREED));
+            Integer gender = loadedDraft.getAsInteger(DraftEntry.COLUMN_PET_GENDER);
+            binding.spinnerGender.setSelection(gender != null ? gender : PetEntry.GENDER_UNKNOWN);
+            binding.editPetWeight.setText(loadedDraft.getAsString(DraftEntry.COLUMN_PET_WEIGHT));
+//            The restored input isn't saved yet
+            petHasChanged = true;
+            Toast.makeText(this, getString(R.string.editor_draft_restored), Toast.LENGTH_SHORT).show();
+        }
+        fillingFields = false;
+        fieldsFilled = true;
     }
 
     @Override
     public void onLoaderReset(@NonNull android.support.v4.content.Loader<Cursor> loader) {
+        if (loader.getId() == DRAFT_LOADER_ID) {
+            return;
+        }
         binding.editPetName.setText("");
         binding.editPetBreed.setText("");
         binding.spinnerGender.setSelection(PetEntry.GENDER_UNKNOWN);
         binding.editPetWeight.setText("");
-
+        thumbnailLoader.cancel(binding.photo);
     }
 
     private void showUnsavedChangesDialog(
@@ -347,6 +621,7 @@ public class EditorActivity extends AppCompatActivity implements
             public void onClick(DialogInterface dialog, int id) {
                 // User clicked the "Delete" button, so delete the pet.
                 deletePet();
+                discardDraft();
                 finish();
             }
         });
@@ -370,17 +645,8 @@ public class EditorActivity extends AppCompatActivity implements
      */
     private void deletePet() {
         if (petUri != null) {
-            int deletedRows = getContentResolver().delete(petUri, null, null);
-            if (deletedRows > 0) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_delete_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-
-                Toast.makeText(this, getString(R.string.editor_delete_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            }
+            PetWriteQueue.getInstance(this).delete(petUri,
+                    new ToastCallback(this, R.string.editor_delete_pet_successful, R.string.editor_delete_pet_failed));
         }
     }
 
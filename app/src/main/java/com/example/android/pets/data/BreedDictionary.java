@@ -0,0 +1,42 @@
+package com.example.android.pets.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link BreedDictionary} hands out one shared String per breed name. A catalog has a few hundred
+ * breeds spread over many pets, so loaded pets share the same instances instead of holding a copy
+ * each, and comparing equal breeds stops at the identity check.
+ */
+final class BreedDictionary {
+
+    /**
+     * Beyond this many distinct breeds, new ones are no longer kept, so the dictionary can't grow
+     * without bound on unusual data.
+     */
+    private static final int MAX_ENTRIES = 4096;
+
+    private static final Map<String, String> breeds = new HashMap<>();
+
+    private BreedDictionary() {
+    }
+
+    /**
+     * Return the shared instance equal to the breed, or the breed itself if it is new.
+     */
+    static String intern(String breed) {
+        if (breed == null) {
+            return null;
+        }
+        synchronized (breeds) {
+            String shared = breeds.get(breed);
+            if (shared != null) {
+                return shared;
+            }
+            if (breeds.size() < MAX_ENTRIES) {
+                breeds.put(breed, breed);
+            }
+            return breed;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Pet} is an immutable row of the catalog: the id, name and breed of a pet, and the version
+ * of its photo.
+ */
+public final class Pet {
+
+    private final long id;
+    private final String name;
+    private final String breed;
+    private final long photoVersion;
+
+    public Pet(long id, String name, String breed) {
+        this(id, name, breed, 0);
+    }
+
+    public Pet(long id, String name, String breed, long photoVersion) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.photoVersion = photoVersion;
+    }
+
+    /**
+     * Read all rows of the cursor into a list of pets. The cursor needs the {@link PetEntry#_ID},
+     * {@link PetEntry#COLUMN_PET_NAME} and {@link PetEntry#COLUMN_PET_BREED} columns.
+     * Pets of the same breed share the breed String, see {@link BreedDictionary}. The
+     * {@link PetEntry#COLUMN_PET_PHOTO_VERSION} column is optional, without it pets have no photo.
+     */
+    public static List<Pet> fromCursor(Cursor cursor) {
+        List<Pet> pets = new ArrayList<>(cursor.getCount());
+        int idColumn = cursor.getColumnIndexOrThrow(PetEntry._ID);
+        int nameColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+        int breedColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+        int photoVersionColumn = cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO_VERSION);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            pets.add(new Pet(cursor.getLong(idColumn),
+                    cursor.getString(nameColumn),
+                    BreedDictionary.intern(cursor.getString(breedColumn)),
+                    photoVersionColumn < 0 ? 0 : cursor.getLong(photoVersionColumn)));
+        }
+        return pets;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBreed() {
+        return breed;
+    }
+
+    /**
+     * Changes whenever the photo changes, 0 if the pet has no photo.
+     */
+    public long getPhotoVersion() {
+        return photoVersion;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Pet)) {
+            return false;
+        }
+        Pet pet = (Pet) o;
+        return id == pet.id
+                && photoVersion == pet.photoVersion
+                && TextUtils.equals(name, pet.name)
+                && TextUtils.equals(breed, pet.breed);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        result = 31 * result + (breed != null ? breed.hashCode() : 0);
+        result = 31 * result + (int) (photoVersion ^ (photoVersion >>> 32));
+        return result;
+    }
+}
@@ -0,0 +1,343 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.ChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link PetCatalogLoader} loads a window of the catalog, a page URI built by
+ * {@link PetEntry#buildPageUri(int)} or one of its siblings, and keeps it up to date.
+ * <p>
+ * The first load reads the whole window. After that, when the pets change, the loader reads the
+ * change log since the last load and only re-reads the pets that changed, so a refresh costs
+ * O(changes) instead of O(window). When it fell too far behind the log it reads the whole
+ * window again.
+ * <p>
+ * A load that is superseded, because the window moved or the activity went away, is cancelled
+ * down to SQLite, so abandoned scans don't keep the database busy.
+ */
+public class PetCatalogLoader extends AsyncTaskLoader<PetCatalogLoader.Window> {
+
+    /**
+     * With more changes than this since the last load, reading the whole window is cheaper.
+     */
+    private static final int MAX_DELTA = 200;
+
+    /**
+     * Wait this long after a change notification, so a burst of writes causes a single refresh.
+     */
+    private static final long UPDATE_THROTTLE_MILLIS = 250;
+
+    private static final String[] PROJECTION = {PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_PHOTO_VERSION};
+
+    private static final Comparator<Pet> BY_ID = new Comparator<Pet>() {
+        @Override
+        public int compare(Pet pet1, Pet pet2) {
+            return pet1.getId() < pet2.getId() ? -1 : (pet1.getId() == pet2.getId() ? 0 : 1);
+        }
+    };
+
+    /**
+     * A loaded window of the catalog, sorted by id.
+     */
+    public static final class Window {
+        /**
+         * Pets in the window. The list is never modified after it was delivered.
+         */
+        public final List<Pet> pets;
+        /**
+         * True if there are no pets before the window.
+         */
+        public final boolean atTop;
+        /**
+         * True if there are no pets after the window.
+         */
+        public final boolean atEnd;
+        /**
+         * Sequence number of the last change in the change log that the window includes.
+         */
+        final long sequence;
+
+        Window(List<Pet> pets, boolean atTop, boolean atEnd, long sequence) {
+            this.pets = pets;
+            this.atTop = atTop;
+            this.atEnd = atEnd;
+            this.sequence = sequence;
+        }
+    }
+
+    private final Uri windowUri;
+    private final boolean atEndHint;
+    private final ForceLoadContentObserver observer = new ForceLoadContentObserver();
+    private boolean observing;
+    private volatile Window window;
+    private CancellationSignal cancellationSignal;
+
+    /**
+     * @param windowUri page URI of the window
+     * @param atEndHint for a window before an id: whether there are no pets after that id
+     */
+    public PetCatalogLoader(Context context, Uri windowUri, boolean atEndHint) {
+        super(context);
+        this.windowUri = windowUri;
+        this.atEndHint = atEndHint;
+        setUpdateThrottle(UPDATE_THROTTLE_MILLIS);
+    }
+
+    @Override
+    public Window loadInBackground() {
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            cancellationSignal = new CancellationSignal();
+        }
+        try {
+            Window current = window;
+            if (current != null) {
+                Window updated = applyChanges(current);
+                if (updated != null) {
+                    return updated;
+                }
+            }
+            return loadWindow();
+        } finally {
+            synchronized (this) {
+                cancellationSignal = null;
+            }
+        }
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (cancellationSignal != null) {
+                cancellationSignal.cancel();
+            }
+        }
+    }
+
+    /**
+     * Query through the provider, giving up as soon as the load is cancelled.
+     */
+    private Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs) {
+        return ContentResolverCompat.query(getContext().getContentResolver(), uri, projection, selection,
+                selectionArgs, null, cancellationSignal);
+    }
+
+    /**
+     * Read the whole window.
+     */
+    private Window loadWindow() {
+//        Read the sequence first: changes made during the query are applied again next time,
+//        which is harmless because changed pets are always re-read as a whole.
+        long sequence = latestSequence();
+        List<Pet> pets = queryPets(windowUri, null, null);
+
+        boolean full = pets.size() >= windowSize();
+        if (isBackwards()) {
+            return new Window(pets, !full, atEndHint, sequence);
+        }
+        boolean fromTop = windowUri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID) == null;
+        return new Window(pets, fromTop, !full, sequence);
+    }
+
+    /**
+     * Apply the changes since the window was loaded. Return null if the window has to be read
+     * again, because there were too many changes or the change log was compacted in between.
+     */
+    private Window applyChanges(Window current) {
+        Uri changesUri = ChangeEntry.buildChangesSinceUri(current.sequence).buildUpon()
+                .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, String.valueOf(MAX_DELTA + 1))
+                .build();
+        Cursor changes = query(changesUri,
+                new String[]{ChangeEntry.COLUMN_SEQUENCE, ChangeEntry.COLUMN_PET_ID}, null, null);
+        if (changes == null) {
+            return null;
+        }
+        long sequence = current.sequence;
+        Set<Long> changedIds = new LinkedHashSet<>();
+        try {
+            if (changes.getCount() > MAX_DELTA) {
+                return null;
+            }
+            while (changes.moveToNext()) {
+                long changeSequence = changes.getLong(0);
+//                Sequence numbers are contiguous, a gap means the log was compacted
+                if (changeSequence != sequence + 1) {
+                    return null;
+                }
+                sequence = changeSequence;
+                changedIds.add(changes.getLong(1));
+            }
+        } finally {
+            changes.close();
+        }
+        if (changedIds.isEmpty()) {
+            return current;
+        }
+
+//        Only pets in the window matter, and new pets next to an open end of it
+        Set<Long> windowIds = new HashSet<>();
+        for (Pet pet : current.pets) {
+            windowIds.add(pet.getId());
+        }
+        long firstId = current.pets.isEmpty() ? Long.MAX_VALUE : current.pets.get(0).getId();
+        long lastId = current.pets.isEmpty() ? Long.MIN_VALUE : current.pets.get(current.pets.size() - 1).getId();
+        Set<Long> relevantIds = new HashSet<>();
+        List<String> selectionArgs = new ArrayList<>();
+        for (long id : changedIds) {
+            if (windowIds.contains(id) || (current.atEnd && id > lastId) || (current.atTop && id < firstId)) {
+                relevantIds.add(id);
+                selectionArgs.add(String.valueOf(id));
+            }
+        }
+        if (relevantIds.isEmpty()) {
+            return new Window(current.pets, current.atTop, current.atEnd, sequence);
+        }
+
+        String selection = PetEntry._ID + " IN ("
+                + TextUtils.join(",", Collections.nCopies(selectionArgs.size(), "?")) + ")";
+        Map<Long, Pet> changedPets = new HashMap<>();
+        for (Pet pet : queryPets(PetEntry.CONTENT_URI, selection,
+                selectionArgs.toArray(new String[selectionArgs.size()]))) {
+            changedPets.put(pet.getId(), pet);
+        }
+
+//        Replace changed pets, drop deleted ones and add new ones
+        List<Pet> pets = new ArrayList<>(current.pets.size() + changedPets.size());
+        for (Pet pet : current.pets) {
+            if (changedPets.containsKey(pet.getId())) {
+                pets.add(changedPets.remove(pet.getId()));
+            } else if (!relevantIds.contains(pet.getId())) {
+                pets.add(pet);
+            }
+        }
+        if (!changedPets.isEmpty()) {
+            pets.addAll(changedPets.values());
+            Collections.sort(pets, BY_ID);
+        }
+
+//        New pets at an open end can grow the window past its size. Cut it back at the end the
+//        window doesn't start from, which then has pets beyond it.
+        boolean atTop = current.atTop;
+        boolean atEnd = current.atEnd;
+        int size = windowSize();
+        if (pets.size() > size) {
+            if (isBackwards()) {
+                pets = new ArrayList<>(pets.subList(pets.size() - size, pets.size()));
+                atTop = false;
+            } else {
+                pets = new ArrayList<>(pets.subList(0, size));
+                atEnd = false;
+            }
+        }
+        return new Window(pets, atTop, atEnd, sequence);
+    }
+
+    /**
+     * Number of pets in a full window, the limit of the window URI.
+     */
+    private int windowSize() {
+        return Integer.parseInt(windowUri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT));
+    }
+
+    /**
+     * Whether the window is the page before an id, which ends at that id instead of starting there.
+     */
+    private boolean isBackwards() {
+        return windowUri.getQueryParameter(PetEntry.QUERY_PARAMETER_BEFORE_ID) != null;
+    }
+
+    private List<Pet> queryPets(Uri uri, String selection, String[] selectionArgs) {
+        Cursor cursor = query(uri, PROJECTION, selection, selectionArgs);
+        if (cursor == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return Pet.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Sequence number of the last change in the change log, or 0 if there is none.
+     */
+    private long latestSequence() {
+        Cursor cursor = query(ChangeEntry.CONTENT_URI,
+                new String[]{"MAX(" + ChangeEntry.COLUMN_SEQUENCE + ")"}, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(Window data) {
+        if (isReset()) {
+            return;
+        }
+        window = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (window != null) {
+            deliverResult(window);
+        }
+//        Every pet notification goes to descendants of the pets URI, so watch all of them
+        if (!observing) {
+            getContext().getContentResolver().registerContentObserver(PetEntry.CONTENT_URI, true, observer);
+            observing = true;
+        }
+        if (takeContentChanged() || window == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (observing) {
+            getContext().getContentResolver().unregisterContentObserver(observer);
+            observing = false;
+        }
+        window = null;
+    }
+}
@@ -1,13 +1,99 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.List;
+
 public class PetContract {
     static final String CONTENT_AUTHORITY = "com.example.android.pets";
     static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     static final String PATH_PETS = "pets";
+    static final String PATH_SEARCH = "search";
+    static final String PATH_CHANGES = "changes";
+    static final String PATH_EXPORT = "export";
+    static final String PATH_IMPORTS = "imports";
+    static final String PATH_DRAFTS = "drafts";
+    static final String PATH_STATS = "stats";
+    static final String PATH_PHOTO = "photo";
+    static final String PATH_THUMBNAIL = "thumbnail";
+    static final String PATH_SHELTERS = "shelters";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call} that returns the hit and miss
+     * counters of the query cache of the provider as a Bundle with the CACHE_STATS_* keys.
+     */
+    public static final String METHOD_CACHE_STATS = "cache_stats";
+    public static final String CACHE_STATS_HITS = "hits";
+    public static final String CACHE_STATS_MISSES = "misses";
+    /**
+     * Number of cached results dropped because the data changed after they were read.
+     */
+    public static final String CACHE_STATS_INVALIDATIONS = "invalidations";
+    /**
+     * Number of cached results dropped to stay within the memory limit.
+     */
+    public static final String CACHE_STATS_EVICTIONS = "evictions";
+    public static final String CACHE_STATS_SIZE_BYTES = "size_bytes";
+    /**
+     * Number of query executions saved because an identical query was already running.
+     */
+    public static final String CACHE_STATS_COALESCED = "coalesced";
+    /**
+     * Largest number of callers that waited for a single running query.
+     */
+    public static final String CACHE_STATS_MAX_COALESCED = "max_coalesced";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call} that returns latency and row counters
+     * of the provider. The Bundle has a "operation.target.statistic" key for every operation
+     * (query, insert, bulk_insert, update, delete, apply_batch, call, open_file) and target (pets,
+     * pet_id, search, photo, export, other) that was called, where statistic is one of the METRICS_*
+     * names. Latencies are in microseconds. The rows of apply_batch are its operations, open_file
+     * only measures opening the file, not reading it. The rows of a query are only counted if the
+     * provider read them already, a cursor it passes on unread counts as 0 rows.
+     */
+    public static final String METHOD_METRICS = "metrics";
+    public static final String METRICS_COUNT = "count";
+    public static final String METRICS_ROWS = "rows";
+    public static final String METRICS_MEAN_MICROS = "mean_us";
+    public static final String METRICS_P50_MICROS = "p50_us";
+    public static final String METRICS_P99_MICROS = "p99_us";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call} that returns the slow operation log of
+     * the provider. The Bundle holds a list of Bundles under {@link #SLOW_LOG_ENTRIES}, oldest first,
+     * each with the other SLOW_LOG_* keys.
+     */
+    public static final String METHOD_SLOW_LOG = "slow_log";
+    /**
+     * Method for {@link android.content.ContentResolver#call} that sets the threshold of the slow
+     * operation log. The argument is the threshold in milliseconds, negative turns logging off.
+     */
+    public static final String METHOD_SET_SLOW_THRESHOLD = "set_slow_threshold";
+    public static final String SLOW_LOG_ENTRIES = "entries";
+    public static final String SLOW_LOG_TIME_MILLIS = "time_ms";
+    public static final String SLOW_LOG_OPERATION = "operation";
+    public static final String SLOW_LOG_SQL = "sql";
+    public static final String SLOW_LOG_ARGUMENT_COUNT = "argument_count";
+    public static final String SLOW_LOG_ELAPSED_MICROS = "elapsed_us";
+    public static final String SLOW_LOG_ROWS = "rows";
+    public static final String SLOW_LOG_PLAN = "plan";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call} that recomputes the pet statistics
+     * from the pets, see {@link StatsEntry}. The argument is the shelter, null for the default one.
+     */
+    public static final String METHOD_REBUILD_STATS = "rebuild_stats";
+    /**
+     * Method for {@link android.content.ContentResolver#call} that compares the pet statistics with
+     * the pets without changing them. The argument is the shelter, null for the default one. The
+     * Bundle holds the number of differing statistics under {@link #STATS_CHECK_MISMATCHES}.
+     */
+    public static final String METHOD_CHECK_STATS = "check_stats";
+    public static final String STATS_CHECK_MISMATCHES = "mismatches";
 
     //  Prevent user from creating object PetContract.
     private PetContract() {
@@ -16,6 +102,21 @@ public class PetContract {
     public static final class PetEntry implements BaseColumns {
 
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
+
+        /**
+         * Base URI for full-text searches over the name and breed of pets.
+         * Use {@link #buildSearchUri(String)} to append the search text.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * URI of a file with all pets, for {@link ContentResolver#openInputStream(Uri)} or
+         * {@link ContentResolver#openTypedAssetFileDescriptor}. The file is written while it is
+         * read, so it can be consumed as a stream but not seeked. Use {@link #buildExportUri(String)}
+         * to choose the format. An export covers one shelter, opening it for {@link #ALL_SHELTERS}
+         * throws a {@link java.io.FileNotFoundException}.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets.
          */
@@ -28,7 +129,29 @@ public class PetContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
+        /**
+         * Pets with their breed names. It is a view over {@link #STORAGE_TABLE_NAME} and
+         * {@link #BREED_TABLE_NAME}, so it can only be read, writes go to the storage table.
+         */
         public static final String TABLE_NAME = "pets";
+        /**
+         * Rows of the pets, with the breed as key into {@link #BREED_TABLE_NAME}.
+         */
+        static final String STORAGE_TABLE_NAME = "pet_records";
+        /**
+         * Every distinct breed name once, keyed by {@link #_ID}. Breeds are never deleted.
+         */
+        static final String BREED_TABLE_NAME = "breeds";
+        static final String COLUMN_BREED_NAME = "name";
+        /**
+         * Key of the breed in the storage table, also part of the view.
+         */
+        static final String COLUMN_PET_BREED_ID = "breed_id";
+        /**
+         * Full-text index over {@link #COLUMN_PET_NAME} and {@link #COLUMN_PET_BREED}. Its docid is
+         * the {@link #_ID} of the pet.
+         */
+        static final String SEARCH_TABLE_NAME = "pets_fts";
 
         public static final int NUMBER_OF_ADDITIONAL_COLUMNS = 4;
         public static final String _ID = BaseColumns._ID;
@@ -36,6 +159,56 @@ public class PetContract {
         public static final String COLUMN_PET_BREED = "breed";
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_WEIGHT = "weight";
+        /**
+         * Changes whenever the photo of the pet changes, 0 if it has none. The provider sets it
+         * when a photo is written, see {@link #buildPhotoUri(long)}.
+         */
+        public static final String COLUMN_PET_PHOTO_VERSION = "photo_version";
+        /**
+         * Shelter of the pet. Only queries over {@link #ALL_SHELTERS} return this column.
+         */
+        public static final String COLUMN_SHELTER = "shelter";
+
+        /**
+         * Shelter of the URIs without a shelter path, see {@link #withShelter(Uri, String)}.
+         */
+        public static final String DEFAULT_SHELTER = "default";
+        /**
+         * Shelter for queries of {@link #CONTENT_URI} over all shelters. Each row has its
+         * {@link #COLUMN_SHELTER}. The sort order may only name columns, each optionally followed
+         * by COLLATE BINARY, NOCASE or RTRIM and by ASC or DESC, and paging is not supported.
+         */
+        public static final String ALL_SHELTERS = "*";
+
+        /**
+         * Query parameter with the maximum number of rows in a page. Paged queries are always
+         * sorted by {@link #_ID}, and the id of the last row is the token for the next page.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        /**
+         * Query parameter for a paged query: return rows with an id greater than this one.
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+        /**
+         * Query parameter for a paged query: return the last rows with an id smaller than this one.
+         */
+        public static final String QUERY_PARAMETER_BEFORE_ID = "before_id";
+
+        /**
+         * Query parameter with the format of an export, one of the EXPORT_FORMAT_* values.
+         * CSV is the default.
+         */
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+        /**
+         * Comma separated values with a header line, in the MIME type {@link #EXPORT_CSV_TYPE}.
+         */
+        public static final String EXPORT_FORMAT_CSV = "csv";
+        /**
+         * One JSON object per line, in the MIME type {@link #EXPORT_JSON_TYPE}.
+         */
+        public static final String EXPORT_FORMAT_JSON = "json";
+        public static final String EXPORT_CSV_TYPE = "text/csv";
+        public static final String EXPORT_JSON_TYPE = "application/x-ndjson";
 
         public static final int GENDER_UNKNOWN = 0;
         public static final int GENDER_MALE = 1;
@@ -44,6 +217,288 @@ public class PetContract {
         public static boolean isValidGender(Integer gender) {
             return (gender == GENDER_FEMALE || gender == GENDER_MALE || gender == GENDER_UNKNOWN);
         }
+
+        /**
+         * Build the URI for pets whose name or breed contains words starting with the words of
+         * the given text. Pets whose name starts with the first word are returned first, then by
+         * name. Only the first 50 pets are returned, append {@link #QUERY_PARAMETER_LIMIT} for
+         * more or fewer.
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_SEARCH_URI.buildUpon().appendPath(text).build();
+        }
+
+        /**
+         * Return the URI referring to the given shelter instead of the one of the URI. Every
+         * shelter has its own database. Its URIs start with "shelters/name/", and observers of one
+         * shelter aren't notified about changes to another. URIs without it refer to
+         * {@link #DEFAULT_SHELTER}. Shelter names are made of lower case letters, digits and
+         * underscores.
+         */
+        public static Uri withShelter(Uri uri, String shelter) {
+            List<String> segments = uri.getPathSegments();
+            if (!segments.isEmpty() && segments.get(0).equals(PATH_SHELTERS)) {
+                segments = segments.subList(Math.min(2, segments.size()), segments.size());
+            }
+            Uri.Builder builder = BASE_CONTENT_URI.buildUpon();
+            if (!DEFAULT_SHELTER.equals(shelter)) {
+                builder.appendPath(PATH_SHELTERS).appendPath(shelter);
+            }
+            for (String segment : segments) {
+                builder.appendPath(segment);
+            }
+            return builder.encodedQuery(uri.getEncodedQuery()).build();
+        }
+
+        /**
+         * MIME type of photos and thumbnails.
+         */
+        public static final String PHOTO_TYPE = "image/jpeg";
+        /**
+         * Longest side of a stored photo in pixels, larger photos are scaled down when written.
+         */
+        public static final int PHOTO_MAX_SIZE = 1280;
+        /**
+         * Longest side of a thumbnail in pixels.
+         */
+        public static final int THUMBNAIL_MAX_SIZE = 256;
+
+        /**
+         * Build the URI for the photo of the pet with the given id. Opening it for writing stores a
+         * new photo and its thumbnail once the stream is closed, deleting it removes the photo.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, id), PATH_PHOTO);
+        }
+
+        /**
+         * Build the URI for the thumbnail of the photo of the pet with the given id. Thumbnails are
+         * made when the photo is written and can only be read.
+         */
+        public static Uri buildThumbnailUri(long id) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, id), PATH_THUMBNAIL);
+        }
+
+        /**
+         * Build the URI for an export of all pets in the given EXPORT_FORMAT_* format.
+         */
+        public static Uri buildExportUri(String format) {
+            return CONTENT_EXPORT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format)
+                    .build();
+        }
+
+        /**
+         * Build the URI for the first page of pets.
+         */
+        public static Uri buildPageUri(int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Build the URI for the page of pets that follows the pet with the given id.
+         */
+        public static Uri buildPageAfterUri(int limit, long afterId) {
+            return buildPageUri(limit).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .build();
+        }
+
+        /**
+         * Build the URI for the page of pets that precedes the pet with the given id.
+         */
+        public static Uri buildPageBeforeUri(int limit, long beforeId) {
+            return buildPageUri(limit).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_BEFORE_ID, String.valueOf(beforeId))
+                    .build();
+        }
+    }
+
+    /**
+     * Append-only log of changes to the pets table, one row per inserted, updated or deleted pet.
+     * <p>
+     * Rows are written in the same transaction as the change itself. Sequence numbers are
+     * contiguous, so a consumer that remembers the last sequence it saw can query
+     * {@link #buildChangesSinceUri(long)} for everything that happened since. Only the last
+     * {@link #MAX_RETAINED} changes or so are kept; when the first returned sequence is not the
+     * next one expected, older changes were dropped and the consumer has to reload everything.
+     */
+    public static final class ChangeEntry {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changes.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        public static final String TABLE_NAME = "pet_changes";
+
+        public static final String COLUMN_SEQUENCE = "seq";
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_OPERATION = "operation";
+
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+
+        /**
+         * Query parameter: return changes with a sequence number greater than this one.
+         * {@link PetEntry#QUERY_PARAMETER_LIMIT} limits the number of changes returned.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /**
+         * Approximate number of most recent changes kept in the log.
+         */
+        public static final int MAX_RETAINED = 10000;
+
+        private ChangeEntry() {
+        }
+
+        /**
+         * Build the URI for all changes after the given sequence number, oldest first.
+         */
+        public static Uri buildChangesSinceUri(long since) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since))
+                    .build();
+        }
+    }
+
+    /**
+     * Progress of imports that haven't finished yet, one row per source.
+     * <p>
+     * An import writes its progress in the same batch as the pets it imported, so after a crash
+     * the row tells exactly how many input rows are already in the database. Inserting a row for
+     * a source that already has one replaces it. Changes are not notified.
+     */
+    public static final class ImportEntry {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_IMPORTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of imports.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_IMPORTS;
+
+        public static final String TABLE_NAME = "pet_imports";
+
+        /**
+         * Identifies the input, for example the URI of the imported file.
+         */
+        public static final String COLUMN_SOURCE = "source";
+        /**
+         * Number of input rows handled so far, imported or rejected.
+         */
+        public static final String COLUMN_ROWS_DONE = "rows_done";
+        public static final String COLUMN_ROWS_IMPORTED = "rows_imported";
+        public static final String COLUMN_ROWS_REJECTED = "rows_rejected";
+
+        private ImportEntry() {
+        }
+    }
+
+    /**
+     * Unsaved input of the pet editor, at most one draft per pet. The draft of a pet that doesn't
+     * exist yet has the pet id {@link #NEW_PET_ID}.
+     * <p>
+     * Drafts are written with every few keystrokes, so they bypass the query cache and their
+     * changes are not notified. Inserting a draft for a pet that already has one replaces it.
+     */
+    public static final class DraftEntry {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_DRAFTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of drafts.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DRAFTS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single draft.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DRAFTS;
+
+        public static final String TABLE_NAME = "pet_drafts";
+
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_PET_NAME = "name";
+        public static final String COLUMN_PET_BREED = "breed";
+        public static final String COLUMN_PET_GENDER = "gender";
+        /**
+         * Weight as the user typed it, which may not be a number yet.
+         */
+        public static final String COLUMN_PET_WEIGHT = "weight";
+
+        public static final long NEW_PET_ID = 0;
+
+        private DraftEntry() {
+        }
+
+        /**
+         * Build the URI for the draft of the pet with the given id, or of a new pet.
+         */
+        public static Uri buildDraftUri(long petId) {
+            return ContentUris.withAppendedId(CONTENT_URI, petId);
+        }
+    }
+
+    /**
+     * Number of pets per gender, per weight range and per breed. Every write to the pets updates
+     * the counts it affects, so reading them takes the same time however many pets there are.
+     * <p>
+     * Rows come sorted by kind and by count, largest first, unless a sort order is given. A
+     * selection on {@link #COLUMN_KIND} together with {@link PetEntry#QUERY_PARAMETER_LIMIT} gives
+     * for example the top breeds. Statistics can only be read, and only per shelter.
+     */
+    public static final class StatsEntry {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of statistics.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        static final String TABLE_NAME = "pet_stats";
+        /**
+         * The counts with the breed names, and without the ones that dropped to zero.
+         */
+        static final String VIEW_NAME = "pet_stats_labeled";
+
+        /**
+         * One of the KIND_* values.
+         */
+        public static final String COLUMN_KIND = "kind";
+        /**
+         * The gender, the lower bound of the weight range, or the breed id, 0 for pets without breed.
+         */
+        public static final String COLUMN_BUCKET = "bucket";
+        /**
+         * Name of the breed, null for the other kinds.
+         */
+        public static final String COLUMN_LABEL = "label";
+        public static final String COLUMN_COUNT = "count";
+
+        public static final String KIND_GENDER = "gender";
+        public static final String KIND_WEIGHT = "weight";
+        public static final String KIND_BREED = "breed";
+
+        /**
+         * Width of the weight ranges in kg.
+         */
+        public static final int WEIGHT_RANGE = 5;
+
+        private StatsEntry() {
+        }
     }
 
 }
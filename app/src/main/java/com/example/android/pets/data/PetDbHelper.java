@@ -1,19 +1,325 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteTransactionListener;
 
+import com.example.android.pets.data.PetContract.ChangeEntry;
+import com.example.android.pets.data.PetContract.DraftEntry;
+import com.example.android.pets.data.PetContract.ImportEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.StatsEntry;
+
+import java.util.HashMap;
+import java.util.Map;
 
 public class PetDbHelper extends SQLiteOpenHelper {
 
     public static final String LOG_TAG = PetDbHelper.class.getSimpleName();
-    private static final int DATABASE_VERSION = 1;
     private static final String DATABASE_NAME = "pets.db";
 
+    /**
+     * The statistics computed from scratch, as rows of kind, bucket and count. The buckets match
+     * the ones the triggers of {@link #countStats(String, String)} use.
+     */
+    private static final String STATS_FROM_PETS =
+            "SELECT '" + StatsEntry.KIND_GENDER + "' AS " + StatsEntry.COLUMN_KIND + ", "
+                    + PetEntry.COLUMN_PET_GENDER + " AS " + StatsEntry.COLUMN_BUCKET
+                    + ", COUNT(*) AS " + StatsEntry.COLUMN_COUNT + " FROM " + PetEntry.STORAGE_TABLE_NAME + " GROUP BY " + PetEntry.COLUMN_PET_GENDER
+                    + " UNION ALL SELECT '" + StatsEntry.KIND_WEIGHT + "', "
+                    + PetEntry.COLUMN_PET_WEIGHT + " / " + StatsEntry.WEIGHT_RANGE + " * " + StatsEntry.WEIGHT_RANGE
+                    + ", COUNT(*) FROM " + PetEntry.STORAGE_TABLE_NAME
+                    + " GROUP BY " + PetEntry.COLUMN_PET_WEIGHT + " / " + StatsEntry.WEIGHT_RANGE
+                    + " UNION ALL SELECT '" + StatsEntry.KIND_BREED + "', IFNULL(" + PetEntry.COLUMN_PET_BREED_ID
+                    + ", 0), COUNT(*) FROM " + PetEntry.STORAGE_TABLE_NAME
+                    + " GROUP BY IFNULL(" + PetEntry.COLUMN_PET_BREED_ID + ", 0)";
+
+    private static final String STATS_FROM_TABLE = "SELECT " + StatsEntry.COLUMN_KIND + ", "
+            + StatsEntry.COLUMN_BUCKET + ", " + StatsEntry.COLUMN_COUNT + " FROM " + StatsEntry.TABLE_NAME
+            + " WHERE " + StatsEntry.COLUMN_COUNT + " > 0";
+
+    /**
+     * Schema changes, in order. MIGRATIONS[i] upgrades the database from version i + 1 to i + 2.
+     * Never change a migration that was released, add a new one at the end instead.
+     */
+    private static final String[][] MIGRATIONS = {
+//            2: indexes for lookups by name and breed and for filtering by gender and weight
+            {
+                    "CREATE INDEX pets_name_idx ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_NAME + ")",
+                    "CREATE INDEX pets_breed_idx ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_BREED + ")",
+                    "CREATE INDEX pets_gender_weight_idx ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ")"
+            },
+//            3: covering index for the catalog projection (_id is the rowid, so it is always
+//            part of an index). It also serves lookups by name, so the name index goes away.
+            {
+                    "CREATE INDEX pets_name_breed_idx ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")",
+                    "DROP INDEX pets_name_idx"
+            },
+//            4: full-text index over name and breed, kept in sync with the pets table by triggers
+            {
+                    "CREATE VIRTUAL TABLE " + PetEntry.SEARCH_TABLE_NAME + " USING fts4("
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")",
+                    "INSERT INTO " + PetEntry.SEARCH_TABLE_NAME + " (docid, "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")"
+                            + " SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME,
+                    "CREATE TRIGGER pets_fts_insert AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + " INSERT INTO " + PetEntry.SEARCH_TABLE_NAME + " (docid, "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")"
+                            + " VALUES (NEW." + PetEntry._ID + ", NEW." + PetEntry.COLUMN_PET_NAME
+                            + ", NEW." + PetEntry.COLUMN_PET_BREED + "); END",
+                    "CREATE TRIGGER pets_fts_update AFTER UPDATE OF " + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + " ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + PetEntry.SEARCH_TABLE_NAME + " SET "
+                            + PetEntry.COLUMN_PET_NAME + " = NEW." + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + " = NEW." + PetEntry.COLUMN_PET_BREED
+                            + " WHERE docid = OLD." + PetEntry._ID + "; END",
+                    "CREATE TRIGGER pets_fts_delete AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + " DELETE FROM " + PetEntry.SEARCH_TABLE_NAME
+                            + " WHERE docid = OLD." + PetEntry._ID + "; END"
+            },
+//            5: change log filled by triggers, so it is written in the same transaction as the
+//            change. Every 1000 changes the log drops what is older than the retained ones.
+            {
+                    "CREATE TABLE " + ChangeEntry.TABLE_NAME + " ("
+                            + ChangeEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + ChangeEntry.COLUMN_PET_ID + " INTEGER NOT NULL, "
+                            + ChangeEntry.COLUMN_OPERATION + " INTEGER NOT NULL)",
+                    changeLogTrigger("pet_changes_insert", PetEntry.TABLE_NAME, "INSERT", "NEW",
+                            ChangeEntry.OPERATION_INSERT),
+                    changeLogTrigger("pet_changes_update", PetEntry.TABLE_NAME, "UPDATE", "NEW",
+                            ChangeEntry.OPERATION_UPDATE),
+                    changeLogTrigger("pet_changes_delete", PetEntry.TABLE_NAME, "DELETE", "OLD",
+                            ChangeEntry.OPERATION_DELETE),
+                    "CREATE TRIGGER pet_changes_compact AFTER INSERT ON " + ChangeEntry.TABLE_NAME
+                            + " WHEN NEW." + ChangeEntry.COLUMN_SEQUENCE + " % 1000 = 0 BEGIN"
+                            + " DELETE FROM " + ChangeEntry.TABLE_NAME
+                            + " WHERE " + ChangeEntry.COLUMN_SEQUENCE + " <= NEW." + ChangeEntry.COLUMN_SEQUENCE
+                            + " - " + ChangeEntry.MAX_RETAINED + "; END"
+            },
+//            6: progress of running imports, so they can resume after a crash
+            {
+                    "CREATE TABLE " + ImportEntry.TABLE_NAME + " ("
+                            + ImportEntry.COLUMN_SOURCE + " TEXT PRIMARY KEY, "
+                            + ImportEntry.COLUMN_ROWS_DONE + " INTEGER NOT NULL, "
+                            + ImportEntry.COLUMN_ROWS_IMPORTED + " INTEGER NOT NULL, "
+                            + ImportEntry.COLUMN_ROWS_REJECTED + " INTEGER NOT NULL)"
+            },
+//            7: unsaved input of the editor
+            {
+                    "CREATE TABLE " + DraftEntry.TABLE_NAME + " ("
+                            + DraftEntry.COLUMN_PET_ID + " INTEGER PRIMARY KEY, "
+                            + DraftEntry.COLUMN_PET_NAME + " TEXT, "
+                            + DraftEntry.COLUMN_PET_BREED + " TEXT, "
+                            + DraftEntry.COLUMN_PET_GENDER + " INTEGER, "
+                            + DraftEntry.COLUMN_PET_WEIGHT + " TEXT)"
+            },
+//            8: breeds move into a lookup table and pets keep only its key. The pets table becomes
+//            a view with the same columns as before, over the new storage table. Ids, including the
+//            AUTOINCREMENT sequence, carry over, and so do the full-text index and the change log,
+//            whose triggers move to the storage table.
+            {
+                    "CREATE TABLE " + PetEntry.BREED_TABLE_NAME + " ("
+                            + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + PetEntry.COLUMN_BREED_NAME + " TEXT NOT NULL UNIQUE)",
+                    "INSERT INTO " + PetEntry.BREED_TABLE_NAME + " (" + PetEntry.COLUMN_BREED_NAME + ")"
+                            + " SELECT DISTINCT " + PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME
+                            + " WHERE " + PetEntry.COLUMN_PET_BREED + " IS NOT NULL",
+                    "CREATE TABLE " + PetEntry.STORAGE_TABLE_NAME + " ("
+                            + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
+                            + PetEntry.COLUMN_PET_BREED_ID + " INTEGER REFERENCES "
+                            + PetEntry.BREED_TABLE_NAME + " (" + PetEntry._ID + "), "
+                            + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+                            + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0)",
+                    "INSERT INTO " + PetEntry.STORAGE_TABLE_NAME + " (" + PetEntry._ID + ", "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED_ID + ", "
+                            + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ")"
+                            + " SELECT p." + PetEntry._ID + ", p." + PetEntry.COLUMN_PET_NAME + ", b." + PetEntry._ID
+                            + ", p." + PetEntry.COLUMN_PET_GENDER + ", p." + PetEntry.COLUMN_PET_WEIGHT
+                            + " FROM " + PetEntry.TABLE_NAME + " p LEFT JOIN " + PetEntry.BREED_TABLE_NAME
+                            + " b ON b." + PetEntry.COLUMN_BREED_NAME + " = p." + PetEntry.COLUMN_PET_BREED,
+//                    Deleted ids at the end must not be handed out again
+                    "DELETE FROM sqlite_sequence WHERE name = '" + PetEntry.STORAGE_TABLE_NAME + "'",
+                    "INSERT INTO sqlite_sequence (name, seq) SELECT '" + PetEntry.STORAGE_TABLE_NAME
+                            + "', seq FROM sqlite_sequence WHERE name = '" + PetEntry.TABLE_NAME + "'",
+//                    Dropping the table drops its indexes and triggers too
+                    "DROP TABLE " + PetEntry.TABLE_NAME,
+                    "CREATE VIEW " + PetEntry.TABLE_NAME + " AS SELECT"
+                            + " r." + PetEntry._ID + " AS " + PetEntry._ID
+                            + ", r." + PetEntry.COLUMN_PET_NAME + " AS " + PetEntry.COLUMN_PET_NAME
+                            + ", b." + PetEntry.COLUMN_BREED_NAME + " AS " + PetEntry.COLUMN_PET_BREED
+                            + ", r." + PetEntry.COLUMN_PET_GENDER + " AS " + PetEntry.COLUMN_PET_GENDER
+                            + ", r." + PetEntry.COLUMN_PET_WEIGHT + " AS " + PetEntry.COLUMN_PET_WEIGHT
+                            + ", r." + PetEntry.COLUMN_PET_BREED_ID + " AS " + PetEntry.COLUMN_PET_BREED_ID
+                            + " FROM " + PetEntry.STORAGE_TABLE_NAME + " r LEFT JOIN " + PetEntry.BREED_TABLE_NAME
+                            + " b ON b." + PetEntry._ID + " = r." + PetEntry.COLUMN_PET_BREED_ID,
+                    "CREATE INDEX pet_records_name_breed_idx ON " + PetEntry.STORAGE_TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED_ID + ")",
+                    "CREATE INDEX pet_records_breed_idx ON " + PetEntry.STORAGE_TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_BREED_ID + ")",
+                    "CREATE INDEX pet_records_gender_weight_idx ON " + PetEntry.STORAGE_TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ")",
+                    "CREATE TRIGGER pet_records_fts_insert AFTER INSERT ON " + PetEntry.STORAGE_TABLE_NAME
+                            + " BEGIN INSERT INTO " + PetEntry.SEARCH_TABLE_NAME + " (docid, "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")"
+                            + " VALUES (NEW." + PetEntry._ID + ", NEW." + PetEntry.COLUMN_PET_NAME
+                            + ", " + breedNameOf("NEW") + "); END",
+                    "CREATE TRIGGER pet_records_fts_update AFTER UPDATE OF " + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED_ID + " ON " + PetEntry.STORAGE_TABLE_NAME + " BEGIN"
+                            + " UPDATE " + PetEntry.SEARCH_TABLE_NAME + " SET "
+                            + PetEntry.COLUMN_PET_NAME + " = NEW." + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + " = " + breedNameOf("NEW")
+                            + " WHERE docid = OLD." + PetEntry._ID + "; END",
+                    "CREATE TRIGGER pet_records_fts_delete AFTER DELETE ON " + PetEntry.STORAGE_TABLE_NAME
+                            + " BEGIN DELETE FROM " + PetEntry.SEARCH_TABLE_NAME
+                            + " WHERE docid = OLD." + PetEntry._ID + "; END",
+                    changeLogTrigger("pet_records_changes_insert", PetEntry.STORAGE_TABLE_NAME, "INSERT", "NEW",
+                            ChangeEntry.OPERATION_INSERT),
+                    changeLogTrigger("pet_records_changes_update", PetEntry.STORAGE_TABLE_NAME, "UPDATE", "NEW",
+                            ChangeEntry.OPERATION_UPDATE),
+                    changeLogTrigger("pet_records_changes_delete", PetEntry.STORAGE_TABLE_NAME, "DELETE", "OLD",
+                            ChangeEntry.OPERATION_DELETE)
+            },
+//            9: pet counts per gender, weight range and breed, kept up to date by triggers in the
+//            transaction of every write
+            {
+                    "CREATE TABLE " + StatsEntry.TABLE_NAME + " ("
+                            + StatsEntry.COLUMN_KIND + " TEXT NOT NULL, "
+                            + StatsEntry.COLUMN_BUCKET + " INTEGER NOT NULL, "
+                            + StatsEntry.COLUMN_COUNT + " INTEGER NOT NULL, "
+                            + "PRIMARY KEY (" + StatsEntry.COLUMN_KIND + ", " + StatsEntry.COLUMN_BUCKET + "))",
+//                    Top breeds read the largest counts of a kind first
+                    "CREATE INDEX pet_stats_count_idx ON " + StatsEntry.TABLE_NAME
+                            + " (" + StatsEntry.COLUMN_KIND + ", " + StatsEntry.COLUMN_COUNT + ")",
+                    "CREATE VIEW " + StatsEntry.VIEW_NAME + " AS SELECT"
+                            + " s." + StatsEntry.COLUMN_KIND + " AS " + StatsEntry.COLUMN_KIND
+                            + ", s." + StatsEntry.COLUMN_BUCKET + " AS " + StatsEntry.COLUMN_BUCKET
+                            + ", b." + PetEntry.COLUMN_BREED_NAME + " AS " + StatsEntry.COLUMN_LABEL
+                            + ", s." + StatsEntry.COLUMN_COUNT + " AS " + StatsEntry.COLUMN_COUNT
+                            + " FROM " + StatsEntry.TABLE_NAME + " s LEFT JOIN " + PetEntry.BREED_TABLE_NAME
+                            + " b ON s." + StatsEntry.COLUMN_KIND + " = '" + StatsEntry.KIND_BREED + "'"
+                            + " AND b." + PetEntry._ID + " = s." + StatsEntry.COLUMN_BUCKET
+                            + " WHERE s." + StatsEntry.COLUMN_COUNT + " > 0",
+                    "INSERT INTO " + StatsEntry.TABLE_NAME + " (" + StatsEntry.COLUMN_KIND + ", "
+                            + StatsEntry.COLUMN_BUCKET + ", " + StatsEntry.COLUMN_COUNT + ") " + STATS_FROM_PETS,
+                    "CREATE TRIGGER pet_stats_insert AFTER INSERT ON " + PetEntry.STORAGE_TABLE_NAME + " BEGIN"
+                            + countStats("NEW", "+ 1") + " END",
+                    "CREATE TRIGGER pet_stats_update AFTER UPDATE OF " + PetEntry.COLUMN_PET_GENDER + ", "
+                            + PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry.COLUMN_PET_BREED_ID
+                            + " ON " + PetEntry.STORAGE_TABLE_NAME + " BEGIN"
+                            + countStats("OLD", "- 1") + countStats("NEW", "+ 1") + " END",
+                    "CREATE TRIGGER pet_stats_delete AFTER DELETE ON " + PetEntry.STORAGE_TABLE_NAME + " BEGIN"
+                            + countStats("OLD", "- 1") + " END"
+            },
+//            10: version of the photo of each pet, the photos themselves are files
+            {
+                    "ALTER TABLE " + PetEntry.STORAGE_TABLE_NAME + " ADD COLUMN "
+                            + PetEntry.COLUMN_PET_PHOTO_VERSION + " INTEGER NOT NULL DEFAULT 0",
+                    "DROP VIEW " + PetEntry.TABLE_NAME,
+                    "CREATE VIEW " + PetEntry.TABLE_NAME + " AS SELECT"
+                            + " r." + PetEntry._ID + " AS " + PetEntry._ID
+                            + ", r." + PetEntry.COLUMN_PET_NAME + " AS " + PetEntry.COLUMN_PET_NAME
+                            + ", b." + PetEntry.COLUMN_BREED_NAME + " AS " + PetEntry.COLUMN_PET_BREED
+                            + ", r." + PetEntry.COLUMN_PET_GENDER + " AS " + PetEntry.COLUMN_PET_GENDER
+                            + ", r." + PetEntry.COLUMN_PET_WEIGHT + " AS " + PetEntry.COLUMN_PET_WEIGHT
+                            + ", r." + PetEntry.COLUMN_PET_BREED_ID + " AS " + PetEntry.COLUMN_PET_BREED_ID
+                            + ", r." + PetEntry.COLUMN_PET_PHOTO_VERSION + " AS " + PetEntry.COLUMN_PET_PHOTO_VERSION
+                            + " FROM " + PetEntry.STORAGE_TABLE_NAME + " r LEFT JOIN " + PetEntry.BREED_TABLE_NAME
+                            + " b ON b." + PetEntry._ID + " = r." + PetEntry.COLUMN_PET_BREED_ID
+            }
+    };
+
+    private static final int DATABASE_VERSION = MIGRATIONS.length + 1;
+
+    /**
+     * Page cache size of the primary connection, in KiB (negative values are KiB for SQLite).
+     */
+    private static final int CACHE_SIZE_KIB = 2048;
+
+    private final boolean writeAheadLogging;
+
+    /**
+     * Breed ids by name, see {@link #breedId(SQLiteDatabase, String)}.
+     */
+    private final Map<String, Long> breedIds = new HashMap<>();
+    private boolean breedIdsLoaded;
+
+    /**
+     * Ids of breeds added inside of the transaction begun with
+     * {@link #beginTransaction(SQLiteDatabase)}, cached once it commits. Guarded by breedIds.
+     */
+    private final Map<String, Long> pendingBreedIds = new HashMap<>();
+    private boolean breedIdsPending;
+
+    private final SQLiteTransactionListener breedIdsListener = new SQLiteTransactionListener() {
+        @Override
+        public void onBegin() {
+        }
+
+        @Override
+        public void onCommit() {
+            synchronized (breedIds) {
+                breedIds.putAll(pendingBreedIds);
+                pendingBreedIds.clear();
+                breedIdsPending = false;
+            }
+        }
+
+        @Override
+        public void onRollback() {
+            synchronized (breedIds) {
+                pendingBreedIds.clear();
+                breedIdsPending = false;
+            }
+        }
+    };
+
     public PetDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, false);
+    }
+
+    /**
+     * @param writeAheadLogging open the database in write-ahead-log mode. Readers then use their
+     *                          own connections and no longer block the writer, or the other way round.
+     */
+    public PetDbHelper(Context context, boolean writeAheadLogging) {
+        this(context, DATABASE_NAME, writeAheadLogging);
+    }
+
+    /**
+     * @param databaseName file of the database, every shelter but the default one has its own
+     */
+    PetDbHelper(Context context, String databaseName, boolean writeAheadLogging) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        this.writeAheadLogging = writeAheadLogging;
+//        The database is opened in WAL mode right away, with one primary connection that does
+//        all writes and a pool of read connections next to it
+        setWriteAheadLoggingEnabled(writeAheadLogging);
+    }
+
+    /**
+     * Pragmas run here only reach the primary connection. The pooled read connections are opened
+     * by the framework later, with its default synchronous level and page cache. SQLite's own
+     * automatic checkpoint, every 1000 pages, stays on; {@link #checkpoint()} adds one after
+     * large writes.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (writeAheadLogging) {
+//            Only the primary connection commits, so this covers every write. In WAL mode NORMAL
+//            is still safe against corruption, only the last commits can be lost on power failure
+            runPragma(db, "synchronous=NORMAL");
+        }
+        runPragma(db, "cache_size=-" + CACHE_SIZE_KIB);
     }
 
     @Override
@@ -25,12 +331,178 @@ public class PetDbHelper extends SQLiteOpenHelper {
                 + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
                 + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
         sqLiteDatabase.execSQL(SQL_CREATE_PETS_TABLE);
+//        New databases go through the same migrations as old ones, so both end up identical
+        migrate(sqLiteDatabase, 1, DATABASE_VERSION);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-//        sqLiteDatabase.execSQL(SQL_CR);
-//        onCreate(sqLiteDatabase);
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
+
+    /**
+     * Trigger that logs every change of the given kind on the given pets table.
+     */
+    private static String changeLogTrigger(String name, String table, String event, String row, int operation) {
+        return "CREATE TRIGGER " + name + " AFTER " + event + " ON " + table + " BEGIN"
+                + " INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+                + ChangeEntry.COLUMN_PET_ID + ", " + ChangeEntry.COLUMN_OPERATION + ")"
+                + " VALUES (" + row + "." + PetEntry._ID + ", " + operation + "); END";
+    }
+
+    /**
+     * Trigger statements that add the delta to the gender, weight and breed counts of the NEW or
+     * OLD row. Counts that don't exist yet start at zero, counts that drop to zero stay.
+     */
+    private static String countStats(String row, String delta) {
+        return countStat(StatsEntry.KIND_GENDER, row + "." + PetEntry.COLUMN_PET_GENDER, delta)
+                + countStat(StatsEntry.KIND_WEIGHT, row + "." + PetEntry.COLUMN_PET_WEIGHT
+                + " / " + StatsEntry.WEIGHT_RANGE + " * " + StatsEntry.WEIGHT_RANGE, delta)
+                + countStat(StatsEntry.KIND_BREED, "IFNULL(" + row + "." + PetEntry.COLUMN_PET_BREED_ID + ", 0)", delta);
+    }
+
+    private static String countStat(String kind, String bucket, String delta) {
+        return " INSERT OR IGNORE INTO " + StatsEntry.TABLE_NAME + " (" + StatsEntry.COLUMN_KIND + ", "
+                + StatsEntry.COLUMN_BUCKET + ", " + StatsEntry.COLUMN_COUNT + ")"
+                + " VALUES ('" + kind + "', " + bucket + ", 0);"
+                + " UPDATE " + StatsEntry.TABLE_NAME + " SET " + StatsEntry.COLUMN_COUNT + " = "
+                + StatsEntry.COLUMN_COUNT + " " + delta
+                + " WHERE " + StatsEntry.COLUMN_KIND + " = '" + kind + "'"
+                + " AND " + StatsEntry.COLUMN_BUCKET + " = " + bucket + ";";
+    }
+
+    /**
+     * Replace the statistics with ones computed from the pets.
+     */
+    static void rebuildStats(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.delete(StatsEntry.TABLE_NAME, null, null);
+            db.execSQL("INSERT INTO " + StatsEntry.TABLE_NAME + " (" + StatsEntry.COLUMN_KIND + ", "
+                    + StatsEntry.COLUMN_BUCKET + ", " + StatsEntry.COLUMN_COUNT + ") " + STATS_FROM_PETS);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Compare the statistics with ones computed from the pets. Return the number of counts that
+     * are missing, wrong or extra. A wrong count differs in both directions, so the buckets of
+     * both differences are counted once.
+     */
+    static long checkStats(SQLiteDatabase db) {
+        String key = "SELECT " + StatsEntry.COLUMN_KIND + ", " + StatsEntry.COLUMN_BUCKET + " FROM ";
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM ("
+                + key + "(" + STATS_FROM_TABLE + " EXCEPT SELECT * FROM (" + STATS_FROM_PETS + "))"
+                + " UNION " + key + "(SELECT * FROM (" + STATS_FROM_PETS + ") EXCEPT " + STATS_FROM_TABLE + "))",
+                null);
+    }
+
+    /**
+     * Subquery for the breed name of the NEW or OLD row of a trigger on the storage table.
+     */
+    private static String breedNameOf(String row) {
+        return "(SELECT " + PetEntry.COLUMN_BREED_NAME + " FROM " + PetEntry.BREED_TABLE_NAME
+                + " WHERE " + PetEntry._ID + " = " + row + "." + PetEntry.COLUMN_PET_BREED_ID + ")";
+    }
+
+    /**
+     * Begin a transaction on the database of this helper. Breed ids added inside of it are cached
+     * once it commits and forgotten if it rolls back. Nested in another transaction it is a plain
+     * nested transaction, the outermost one decides.
+     */
+    void beginTransaction(SQLiteDatabase db) {
+        if (db.inTransaction()) {
+            db.beginTransaction();
+            return;
+        }
+        db.beginTransactionWithListener(breedIdsListener);
+        synchronized (breedIds) {
+            breedIdsPending = true;
+        }
+    }
+
+    /**
+     * Return the id of the breed, adding it to the breeds table if it is new. Ids are cached, all
+     * of them are read on first use. Ids of breeds added inside of a transaction are only cached
+     * when it was begun with {@link #beginTransaction(SQLiteDatabase)} and commits, because it may
+     * still be rolled back.
+     */
+    long breedId(SQLiteDatabase db, String breed) {
+        boolean inTransaction = db.inTransaction();
+        synchronized (breedIds) {
+            if (!breedIdsLoaded) {
+                Cursor cursor = db.query(PetEntry.BREED_TABLE_NAME,
+                        new String[]{PetEntry._ID, PetEntry.COLUMN_BREED_NAME}, null, null, null, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        breedIds.put(cursor.getString(1), cursor.getLong(0));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                breedIdsLoaded = true;
+            }
+            Long id = breedIds.get(breed);
+            if (id == null && inTransaction && breedIdsPending) {
+                id = pendingBreedIds.get(breed);
+            }
+            if (id != null) {
+                return id;
+            }
+        }
+        db.execSQL("INSERT OR IGNORE INTO " + PetEntry.BREED_TABLE_NAME + " (" + PetEntry.COLUMN_BREED_NAME
+                + ") VALUES (?)", new Object[]{breed});
+        long id = DatabaseUtils.longForQuery(db, "SELECT " + PetEntry._ID + " FROM " + PetEntry.BREED_TABLE_NAME
+                + " WHERE " + PetEntry.COLUMN_BREED_NAME + " = ?", new String[]{breed});
+        synchronized (breedIds) {
+            if (!inTransaction) {
+                breedIds.put(breed, id);
+            } else if (breedIdsPending) {
+                pendingBreedIds.put(breed, id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Run the migrations between the two versions in order. SQLiteOpenHelper already runs
+     * onCreate() and onUpgrade() in a transaction, so a failed migration leaves the old schema.
+     */
+    private static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion; version < newVersion; version++) {
+            for (String statement : MIGRATIONS[version - 1]) {
+                db.execSQL(statement);
+            }
+        }
+    }
+
+    /**
+     * Copy the write-ahead log back into the database file without waiting for readers.
+     * Call it after large writes, so the log doesn't grow until the next automatic checkpoint.
+     * Does nothing while the calling thread is inside of a transaction.
+     */
+    public void checkpoint() {
+        if (!writeAheadLogging) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        if (!db.inTransaction()) {
+            runPragma(db, "wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    /**
+     * Run a pragma. Some pragmas return a row, which execSQL() doesn't allow, so go through a query.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
 }
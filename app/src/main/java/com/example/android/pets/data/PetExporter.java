@@ -0,0 +1,161 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * {@link PetExporter} writes the whole pets table to a stream as CSV or as JSON lines.
+ * <p>
+ * Rows are read in chunks by id, so memory use doesn't depend on the size of the table, and the
+ * first rows are written before the last ones are read. Each chunk is consistent, but rows
+ * changed while the export runs may or may not be part of it.
+ */
+class PetExporter {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private static final String[] COLUMNS = {PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT};
+
+    private final SQLiteDatabase database;
+    private final boolean json;
+
+    /**
+     * @param format {@link PetEntry#EXPORT_FORMAT_CSV} or {@link PetEntry#EXPORT_FORMAT_JSON}
+     */
+    PetExporter(SQLiteDatabase database, String format) {
+        this.database = database;
+        this.json = PetEntry.EXPORT_FORMAT_JSON.equals(format);
+    }
+
+    /**
+     * Write all pets to the stream. The stream is flushed but not closed.
+     */
+    void writeTo(OutputStream stream) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+        if (!json) {
+            writeCsvHeader(out);
+        }
+        long lastId = Long.MIN_VALUE;
+        boolean more = true;
+        while (more) {
+            Cursor cursor = database.query(PetEntry.TABLE_NAME, COLUMNS, PetEntry._ID + ">?",
+                    new String[]{String.valueOf(lastId)}, null, null, PetEntry._ID + " ASC",
+                    String.valueOf(CHUNK_SIZE));
+            try {
+                more = cursor.getCount() == CHUNK_SIZE;
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    if (json) {
+                        writeJsonLine(out, cursor);
+                    } else {
+                        writeCsvLine(out, cursor);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        out.flush();
+    }
+
+    private static void writeCsvHeader(Writer out) throws IOException {
+        for (int column = 0; column < COLUMNS.length; column++) {
+            if (column > 0) {
+                out.write(',');
+            }
+            out.write(COLUMNS[column]);
+        }
+        out.write('\n');
+    }
+
+    private static void writeCsvLine(Writer out, Cursor cursor) throws IOException {
+        out.write(Long.toString(cursor.getLong(0)));
+        out.write(',');
+        writeCsvValue(out, cursor.getString(1));
+        out.write(',');
+        writeCsvValue(out, cursor.getString(2));
+        out.write(',');
+        out.write(Integer.toString(cursor.getInt(3)));
+        out.write(',');
+        out.write(Integer.toString(cursor.getInt(4)));
+        out.write('\n');
+    }
+
+    /**
+     * Write a CSV field, quoted if needed. A missing value is an empty field.
+     */
+    private static void writeCsvValue(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    private static void writeJsonLine(Writer out, Cursor cursor) throws IOException {
+        out.write("{\"" + PetEntry._ID + "\":");
+        out.write(Long.toString(cursor.getLong(0)));
+        out.write(",\"" + PetEntry.COLUMN_PET_NAME + "\":");
+        writeJsonString(out, cursor.getString(1));
+        out.write(",\"" + PetEntry.COLUMN_PET_BREED + "\":");
+        writeJsonString(out, cursor.getString(2));
+        out.write(",\"" + PetEntry.COLUMN_PET_GENDER + "\":");
+        out.write(Integer.toString(cursor.getInt(3)));
+        out.write(",\"" + PetEntry.COLUMN_PET_WEIGHT + "\":");
+        out.write(Integer.toString(cursor.getInt(4)));
+        out.write("}\n");
+    }
+
+    private static void writeJsonString(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
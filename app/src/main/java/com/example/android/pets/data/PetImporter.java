@@ -0,0 +1,329 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.ImportEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link PetImporter} imports pets from CSV with a header line, in the format written by
+ * {@link PetEntry#buildExportUri(String)}. The name and gender columns are required, breed and
+ * weight are optional and an id column is ignored.
+ * <p>
+ * The input is parsed row by row and every row is validated with the rules of the provider.
+ * Fields are trimmed, an empty breed is stored as no breed and an empty weight as 0. A row with
+ * more or fewer fields than the header is invalid, its fields can't be told apart. Invalid rows
+ * are reported and skipped, valid ones are inserted in batches of a configurable size. Each batch commits together with the progress of the import, so when the same source is
+ * imported again after a crash, the rows that were already imported are skipped.
+ */
+public class PetImporter {
+
+    private static final String LOG_TAG = PetImporter.class.getSimpleName();
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Receives the progress of an import, on the thread running it.
+     */
+    public interface Listener {
+        /**
+         * Called after every committed batch.
+         *
+         * @param rowsDone number of input rows handled so far, including rows of earlier attempts
+         */
+        void onProgress(int rowsDone, int rowsImported, int rowsRejected);
+
+        /**
+         * Called for every row that is not imported.
+         *
+         * @param row    number of the row in the input, the first row after the header is 1
+         * @param reason why the row was rejected
+         */
+        void onRowRejected(int row, String reason);
+    }
+
+    /**
+     * Outcome of a finished import.
+     */
+    public static final class Result {
+        public final int rowsImported;
+        public final int rowsRejected;
+
+        Result(int rowsImported, int rowsRejected) {
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final String source;
+    private final int batchSize;
+    private final Listener listener;
+
+    private int rowsDone;
+    private int rowsImported;
+    private int rowsRejected;
+
+    /**
+     * @param source    identifies the input across attempts, for example the URI of the file
+     * @param batchSize number of input rows committed at once
+     * @param listener  receives progress and rejected rows, or null
+     */
+    public PetImporter(ContentResolver resolver, String source, int batchSize, Listener listener) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size has to be positive");
+        }
+        this.resolver = resolver;
+        this.source = source;
+        this.batchSize = batchSize;
+        this.listener = listener;
+    }
+
+    /**
+     * Import all rows of the input, resuming after the last committed batch of an earlier attempt.
+     * The reader is not closed.
+     */
+    public Result importFrom(Reader input) throws IOException, RemoteException, OperationApplicationException {
+        long start = SystemClock.elapsedRealtime();
+        int rowsToSkip = loadProgress();
+        int resumedAt = rowsToSkip;
+
+        CsvReader reader = new CsvReader(input);
+        List<String> header = reader.readRow();
+        if (header == null) {
+            finish();
+            return new Result(rowsImported, rowsRejected);
+        }
+        int nameColumn = columnIndex(header, PetEntry.COLUMN_PET_NAME, true);
+        int breedColumn = columnIndex(header, PetEntry.COLUMN_PET_BREED, false);
+        int genderColumn = columnIndex(header, PetEntry.COLUMN_PET_GENDER, true);
+        int weightColumn = columnIndex(header, PetEntry.COLUMN_PET_WEIGHT, false);
+
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>(batchSize + 1);
+        int batchRows = 0;
+        int batchRejected = 0;
+        int row = 0;
+        List<String> fields;
+        while ((fields = reader.readRow()) != null) {
+            row++;
+//            Rows up to the recorded progress were committed by an earlier attempt
+            if (row <= rowsToSkip) {
+                continue;
+            }
+            batchRows++;
+            try {
+                if (fields.size() != header.size()) {
+                    throw new IllegalArgumentException("Row has " + fields.size() + " fields, the header has "
+                            + header.size());
+                }
+                ContentValues values = new ContentValues();
+                values.put(PetEntry.COLUMN_PET_NAME, field(fields, nameColumn));
+                String breed = field(fields, breedColumn);
+                values.put(PetEntry.COLUMN_PET_BREED, breed.isEmpty() ? null : breed);
+                values.put(PetEntry.COLUMN_PET_GENDER, parseNumber(field(fields, genderColumn),
+                        PetEntry.COLUMN_PET_GENDER, -1));
+//                Missing weight falls back to the column default
+                values.put(PetEntry.COLUMN_PET_WEIGHT, parseNumber(field(fields, weightColumn),
+                        PetEntry.COLUMN_PET_WEIGHT, 0));
+                PetProvider.isValidNewPet(values);
+                batch.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI).withValues(values).build());
+            } catch (IllegalArgumentException e) {
+                batchRejected++;
+                if (listener != null) {
+                    listener.onRowRejected(row, e.getMessage());
+                }
+            }
+            if (batchRows == batchSize) {
+                commit(batch, batchRows, batchRejected);
+                batch.clear();
+                batchRows = 0;
+                batchRejected = 0;
+            }
+        }
+        if (batchRows != 0) {
+            commit(batch, batchRows, batchRejected);
+        }
+        finish();
+
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, "Imported " + (rowsDone - resumedAt) + " rows of " + source + " in " + elapsed + " ms");
+        return new Result(rowsImported, rowsRejected);
+    }
+
+    /**
+     * Read the progress of an earlier attempt. Return the number of input rows it handled.
+     */
+    private int loadProgress() {
+        Cursor cursor = resolver.query(ImportEntry.CONTENT_URI,
+                new String[]{ImportEntry.COLUMN_ROWS_DONE, ImportEntry.COLUMN_ROWS_IMPORTED,
+                        ImportEntry.COLUMN_ROWS_REJECTED},
+                ImportEntry.COLUMN_SOURCE + "=?", new String[]{source}, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                rowsDone = cursor.getInt(0);
+                rowsImported = cursor.getInt(1);
+                rowsRejected = cursor.getInt(2);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rowsDone;
+    }
+
+    /**
+     * Insert the pets of a batch and record the progress, all in one transaction.
+     */
+    private void commit(ArrayList<ContentProviderOperation> batch, int batchRows, int batchRejected)
+            throws RemoteException, OperationApplicationException {
+        ContentValues progress = new ContentValues();
+        progress.put(ImportEntry.COLUMN_SOURCE, source);
+        progress.put(ImportEntry.COLUMN_ROWS_DONE, rowsDone + batchRows);
+        progress.put(ImportEntry.COLUMN_ROWS_IMPORTED, rowsImported + batch.size());
+        progress.put(ImportEntry.COLUMN_ROWS_REJECTED, rowsRejected + batchRejected);
+        batch.add(ContentProviderOperation.newInsert(ImportEntry.CONTENT_URI).withValues(progress).build());
+        resolver.applyBatch(PetContract.CONTENT_AUTHORITY, batch);
+
+        rowsDone += batchRows;
+        rowsImported += batch.size() - 1;
+        rowsRejected += batchRejected;
+        if (listener != null) {
+            listener.onProgress(rowsDone, rowsImported, rowsRejected);
+        }
+    }
+
+    /**
+     * Forget the progress, the next import of the same source starts from the beginning.
+     */
+    private void finish() {
+        resolver.delete(ImportEntry.CONTENT_URI, ImportEntry.COLUMN_SOURCE + "=?", new String[]{source});
+    }
+
+    private static int columnIndex(List<String> header, String column, boolean required) throws IOException {
+        for (int i = 0; i < header.size(); i++) {
+            if (header.get(i).trim().toLowerCase(Locale.ROOT).equals(column)) {
+                return i;
+            }
+        }
+        if (required) {
+            throw new IOException("Input has no " + column + " column");
+        }
+        return -1;
+    }
+
+    /**
+     * Return the trimmed field of the column, or an empty string if the row or header doesn't have it.
+     */
+    private static String field(List<String> fields, int column) {
+        return column < 0 || column >= fields.size() ? "" : fields.get(column).trim();
+    }
+
+    private static int parseNumber(String value, String column, int fallback) {
+        if (value.isEmpty()) {
+            return fallback;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + column + " " + value);
+        }
+    }
+
+    /**
+     * Reads CSV one row at a time. Quoted fields may contain separators, doubled quotes and line
+     * breaks.
+     */
+    private static final class CsvReader {
+        private final Reader in;
+        private final StringBuilder field = new StringBuilder();
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int length;
+
+        CsvReader(Reader in) {
+            this.in = in;
+        }
+
+        private int read() throws IOException {
+            if (position == length) {
+                length = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (length <= 0) {
+                    length = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+
+        /**
+         * Return the fields of the next non-empty row, or null at the end of the input.
+         */
+        List<String> readRow() throws IOException {
+            List<String> fields = new ArrayList<>();
+            field.setLength(0);
+            boolean quoted = false;
+            boolean empty = true;
+            int c;
+            while (true) {
+                c = read();
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unterminated quoted field");
+                    }
+                    if (c == '"') {
+                        c = read();
+                        if (c != '"') {
+                            quoted = false;
+                            if (c == -1) {
+                                break;
+                            }
+                        }
+                    }
+                    if (quoted) {
+                        field.append((char) c);
+                        continue;
+                    }
+                }
+                if (c == -1) {
+                    break;
+                }
+                if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                    empty = false;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                    empty = false;
+                } else if (c == '\n') {
+                    if (!empty || field.length() != 0) {
+                        break;
+                    }
+                } else if (c != '\r') {
+                    field.append((char) c);
+                    empty = false;
+                }
+            }
+            if (c == -1 && empty && field.length() == 0) {
+                return null;
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+}
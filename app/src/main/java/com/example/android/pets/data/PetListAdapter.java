@@ -0,0 +1,121 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.example.android.pets.R;
+import com.example.android.pets.databinding.ListItemBinding;
+
+/**
+ * {@link PetListAdapter} is an adapter for a {@link RecyclerView} that shows a list of {@link Pet}s.
+ * A new list is compared with the current one on a background thread, so only the rows that
+ * actually changed are rebound. Photo thumbnails are loaded in the background by a
+ * {@link PetThumbnailLoader}, and their loads stop when the row is recycled.
+ */
+public class PetListAdapter extends ListAdapter<Pet, PetListAdapter.PetViewHolder> {
+
+    /**
+     * Pets are the same item when they have the same id, and unchanged when all columns match.
+     */
+    private static final DiffUtil.ItemCallback<Pet> DIFF_CALLBACK = new DiffUtil.ItemCallback<Pet>() {
+        @Override
+        public boolean areItemsTheSame(Pet oldPet, Pet newPet) {
+            return oldPet.getId() == newPet.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(Pet oldPet, Pet newPet) {
+            return oldPet.equals(newPet);
+        }
+    };
+
+    /**
+     * Callback for clicks on a pet in the list.
+     */
+    public interface OnPetClickListener {
+        void onPetClick(long id);
+    }
+
+    private final PetThumbnailLoader thumbnailLoader;
+    private final OnPetClickListener clickListener;
+
+    /**
+     * Constructs a new {@link PetListAdapter}.
+     *
+     * @param thumbnailLoader loads the photo thumbnails of the rows
+     * @param clickListener   called with the id of the pet the user clicked on
+     */
+    public PetListAdapter(PetThumbnailLoader thumbnailLoader, OnPetClickListener clickListener) {
+        super(DIFF_CALLBACK);
+        this.thumbnailLoader = thumbnailLoader;
+        this.clickListener = clickListener;
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     */
+    @NonNull
+    @Override
+    public PetViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        ListItemBinding binding = ListItemBinding.inflate(LayoutInflater.from(parent.getContext()),
+                parent, false);
+        return new PetViewHolder(binding);
+    }
+
+    /**
+     * Binds the pet at the given position to the list item layout of the view holder.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull PetViewHolder holder, int position) {
+        holder.bind(getItem(position));
+    }
+
+    /**
+     * Stops loading the thumbnail of a row that scrolled out, its view is reused for another pet.
+     */
+    @Override
+    public void onViewRecycled(@NonNull PetViewHolder holder) {
+        thumbnailLoader.cancel(holder.binding.photo);
+    }
+
+    class PetViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        private final ListItemBinding binding;
+
+        PetViewHolder(ListItemBinding binding) {
+            super(binding.getRoot());
+            this.binding = binding;
+            binding.getRoot().setOnClickListener(this);
+        }
+
+        void bind(Pet pet) {
+            Context context = binding.getRoot().getContext();
+            binding.name.setText(pet.getName());
+//            Show "Unknown breed" if breed is not specified.
+            String breed = pet.getBreed();
+            binding.summary.setText(TextUtils.isEmpty(breed) ? context.getString(R.string.unknown_breed) : breed);
+            thumbnailLoader.load(pet.getId(), pet.getPhotoVersion(), binding.photo);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                clickListener.onPetClick(getItemId());
+            }
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PetLoadGenerator} runs a mix of reads and writes against {@link PetProvider} from many
+ * threads at once, the way the catalog, the editor and imports hit it together, and reports
+ * latencies, throughput and errors.
+ * <p>
+ * The load goes to a shelter of its own through the real content resolver, so the provider, its
+ * cache and its notifications all take part while the pets of the user stay untouched. The
+ * shelter is seeded before the run and emptied after it.
+ */
+public class PetLoadGenerator {
+
+    private static final String LOG_TAG = PetLoadGenerator.class.getSimpleName();
+
+    public static final int OP_READ_PET = 0;
+    public static final int OP_READ_PAGE = 1;
+    public static final int OP_INSERT = 2;
+    public static final int OP_UPDATE = 3;
+    public static final int OP_DELETE = 4;
+    private static final String[] OPERATION_NAMES = {"read_pet", "read_page", "insert", "update", "delete"};
+
+    private static final int SEED_BATCH_SIZE = 500;
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * How long to wait after the run for notifications that are still on their way.
+     */
+    private static final long NOTIFICATION_SETTLE_MILLIS = 2000;
+
+    /**
+     * Parameters of a run. The defaults are a catalog-heavy mix on a small dataset.
+     */
+    public static class Config {
+        /**
+         * Shelter that receives the load, it is emptied after the run.
+         */
+        public String shelter = "load_test";
+        public int threads = 8;
+        /**
+         * Operations over all threads.
+         */
+        public int operations = 10000;
+        /**
+         * Pets inserted before the run.
+         */
+        public int datasetSize = 1000;
+        /**
+         * Share of reads among the operations, in percent. Writes make up the rest.
+         */
+        public int readPercent = 80;
+        /**
+         * Share of page reads among the reads, in percent. Other reads load a single pet.
+         */
+        public int pageReadPercent = 20;
+        /**
+         * Relative weights of the kinds of writes.
+         */
+        public int insertWeight = 1;
+        public int updateWeight = 2;
+        public int deleteWeight = 1;
+        /**
+         * Number of distinct names and breeds to pick from.
+         */
+        public int distinctNames = 1000;
+        public int distinctBreeds = 50;
+        /**
+         * Zipf exponent of the name and breed distributions, 0 picks them uniformly. The larger
+         * it is, the more often the first few names and breeds come up.
+         */
+        public double skew = 1.0;
+        /**
+         * Seed of the random choices, the same seed gives the same sequence per thread.
+         */
+        public long seed = 42;
+    }
+
+    /**
+     * Outcome of a run.
+     */
+    public static class Report {
+        /**
+         * Per operation, indexed by the OP_* constants.
+         */
+        public final int[] counts = new int[OPERATION_NAMES.length];
+        public final long[] p50Micros = new long[OPERATION_NAMES.length];
+        public final long[] p95Micros = new long[OPERATION_NAMES.length];
+        public final long[] p99Micros = new long[OPERATION_NAMES.length];
+        public int operations;
+        public long elapsedMillis;
+        /**
+         * Operations that failed because the database was locked (SQLITE_BUSY).
+         */
+        public int busyErrors;
+        /**
+         * Operations that failed for any other reason.
+         */
+        public int otherErrors;
+        /**
+         * Successful writes, each of them has to notify the observers of its pet once.
+         */
+        public int notificationsExpected;
+        /**
+         * Notifications that match a successful write by the URI of its pet.
+         */
+        public int notificationsReceived;
+        /**
+         * Notifications in the shelter that match no write, like a notification of the whole
+         * list. They don't make up for lost ones.
+         */
+        public int otherNotifications;
+
+        public double throughput() {
+            return elapsedMillis == 0 ? 0 : operations * 1000.0 / elapsedMillis;
+        }
+
+        public int lostNotifications() {
+            return Math.max(0, notificationsExpected - notificationsReceived);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                    "%d ops in %d ms, %.1f ops/s, %d busy, %d other errors, %d of %d notifications lost,"
+                            + " %d other notifications",
+                    operations, elapsedMillis, throughput(), busyErrors, otherErrors,
+                    lostNotifications(), notificationsExpected, otherNotifications));
+            for (int op = 0; op < OPERATION_NAMES.length; op++) {
+                if (counts[op] == 0) {
+                    continue;
+                }
+                report.append(String.format(Locale.ROOT, "\n%s: %d ops, p50 %d us, p95 %d us, p99 %d us",
+                        OPERATION_NAMES[op], counts[op], p50Micros[op], p95Micros[op], p99Micros[op]));
+            }
+            return report.toString();
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final Config config;
+    private final Uri petsUri;
+    private final String[] names;
+    private final String[] breeds;
+    private final double[] nameDistribution;
+    private final double[] breedDistribution;
+
+    /**
+     * Ids handed out so far, reads and writes pick pets between the two.
+     */
+    private final AtomicLong minId = new AtomicLong();
+    private final AtomicLong maxId = new AtomicLong();
+
+    private final AtomicInteger busyErrors = new AtomicInteger();
+    private final AtomicInteger otherErrors = new AtomicInteger();
+
+    /**
+     * Per pet URI, the successful writes and the notifications received. A write and a
+     * notification arrive in either order, so they are matched after the run.
+     */
+    private final ConcurrentMap<Uri, AtomicInteger> writes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Uri, AtomicInteger> notifications = new ConcurrentHashMap<>();
+
+    public PetLoadGenerator(ContentResolver resolver, Config config) {
+        this.resolver = resolver;
+        this.config = config;
+        this.petsUri = PetEntry.withShelter(PetEntry.CONTENT_URI, config.shelter);
+        this.names = new String[config.distinctNames];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "Pet " + i;
+        }
+        this.breeds = new String[config.distinctBreeds];
+        for (int i = 0; i < breeds.length; i++) {
+            breeds[i] = "Breed " + i;
+        }
+        this.nameDistribution = zipf(names.length, config.skew);
+        this.breedDistribution = zipf(breeds.length, config.skew);
+    }
+
+    /**
+     * Seed the shelter, run the load and empty the shelter again. Blocks until all of it is done,
+     * so don't call this on the main thread.
+     */
+    public Report run() throws InterruptedException {
+        resolver.delete(petsUri, null, null);
+        seed();
+
+        HandlerThread observerThread = new HandlerThread(LOG_TAG);
+        observerThread.start();
+        ContentObserver observer = new ContentObserver(new Handler(observerThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                increment(notifications, uri);
+            }
+        };
+        resolver.registerContentObserver(petsUri, true, observer);
+
+        Report report = new Report();
+        ExecutorService executor = Executors.newFixedThreadPool(config.threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<long[][]>> futures = new ArrayList<>(config.threads);
+            for (int thread = 0; thread < config.threads; thread++) {
+                final int operations = config.operations / config.threads
+                        + (thread < config.operations % config.threads ? 1 : 0);
+                final Random random = new Random(config.seed + thread);
+                futures.add(executor.submit(new Callable<long[][]>() {
+                    @Override
+                    public long[][] call() throws InterruptedException {
+                        start.await();
+                        return runWorker(random, operations);
+                    }
+                }));
+            }
+
+            long startTime = SystemClock.elapsedRealtime();
+            start.countDown();
+            List<long[][]> latencies = new ArrayList<>(futures.size());
+            for (Future<long[][]> future : futures) {
+                try {
+                    latencies.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Load generator thread failed", e.getCause());
+                }
+            }
+            report.elapsedMillis = SystemClock.elapsedRealtime() - startTime;
+            summarize(latencies, report);
+
+//            Notifications are delivered asynchronously, give the last ones time to arrive
+            report.notificationsExpected = total(writes);
+            long settleUntil = SystemClock.elapsedRealtime() + NOTIFICATION_SETTLE_MILLIS;
+            while (matchedNotifications() < report.notificationsExpected
+                    && SystemClock.elapsedRealtime() < settleUntil) {
+                Thread.sleep(10);
+            }
+            report.notificationsReceived = matchedNotifications();
+            report.otherNotifications = total(notifications) - report.notificationsReceived;
+        } finally {
+            executor.shutdownNow();
+            resolver.unregisterContentObserver(observer);
+            observerThread.quit();
+            resolver.delete(petsUri, null, null);
+        }
+        report.busyErrors = busyErrors.get();
+        report.otherErrors = otherErrors.get();
+        Log.i(LOG_TAG, report.toString());
+        return report;
+    }
+
+    /**
+     * Insert the dataset in batches and remember the range of ids it got.
+     */
+    private void seed() {
+        Random random = new Random(config.seed - 1);
+        ContentValues[] batch = new ContentValues[0];
+        for (int done = 0; done < config.datasetSize; done += batch.length) {
+            batch = new ContentValues[Math.min(SEED_BATCH_SIZE, config.datasetSize - done)];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = randomPet(random);
+            }
+            resolver.bulkInsert(petsUri, batch);
+        }
+
+        Cursor cursor = resolver.query(petsUri, new String[]{"MIN(" + PetEntry._ID + ")",
+                "MAX(" + PetEntry._ID + ")"}, null, null, null);
+        if (cursor == null) {
+            throw new IllegalStateException("Cannot query " + petsUri);
+        }
+        try {
+            cursor.moveToFirst();
+            minId.set(cursor.getLong(0));
+            maxId.set(cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Run the operations of one thread. Return the latencies in nanoseconds per operation, the
+     * rows are indexed by the OP_* constants.
+     */
+    private long[][] runWorker(Random random, int operations) {
+        long[][] latencies = new long[OPERATION_NAMES.length][operations];
+        int[] counts = new int[OPERATION_NAMES.length];
+        int writeWeight = config.insertWeight + config.updateWeight + config.deleteWeight;
+        for (int i = 0; i < operations; i++) {
+            int op;
+            if (writeWeight == 0 || random.nextInt(100) < config.readPercent) {
+                op = random.nextInt(100) < config.pageReadPercent ? OP_READ_PAGE : OP_READ_PET;
+            } else {
+                int pick = random.nextInt(writeWeight);
+                op = pick < config.insertWeight ? OP_INSERT
+                        : pick < config.insertWeight + config.updateWeight ? OP_UPDATE : OP_DELETE;
+            }
+            long start = System.nanoTime();
+            try {
+                perform(op, random);
+            } catch (SQLiteDatabaseLockedException e) {
+                busyErrors.incrementAndGet();
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Operation " + OPERATION_NAMES[op] + " failed", e);
+                otherErrors.incrementAndGet();
+            }
+            latencies[op][counts[op]++] = System.nanoTime() - start;
+        }
+        for (int op = 0; op < OPERATION_NAMES.length; op++) {
+            latencies[op] = Arrays.copyOf(latencies[op], counts[op]);
+        }
+        return latencies;
+    }
+
+    private void perform(int op, Random random) {
+        switch (op) {
+            case OP_READ_PET:
+                close(resolver.query(randomPetUri(random), null, null, null, null));
+                break;
+            case OP_READ_PAGE:
+                Uri pageUri = PetEntry.buildPageAfterUri(PAGE_SIZE, randomId(random) - 1);
+                close(resolver.query(PetEntry.withShelter(pageUri, config.shelter), null, null, null, null));
+                break;
+            case OP_INSERT:
+                Uri newUri = resolver.insert(petsUri, randomPet(random));
+                if (newUri != null) {
+                    increment(writes, newUri);
+                    long id = ContentUris.parseId(newUri);
+                    long max;
+                    while ((max = maxId.get()) < id && !maxId.compareAndSet(max, id)) {
+                        // Another insert moved the maximum, try again
+                    }
+                }
+                break;
+            case OP_UPDATE:
+                Uri updatedUri = randomPetUri(random);
+                if (resolver.update(updatedUri, randomPet(random), null, null) > 0) {
+                    increment(writes, updatedUri);
+                }
+                break;
+            case OP_DELETE:
+                Uri deletedUri = randomPetUri(random);
+                if (resolver.delete(deletedUri, null, null) > 0) {
+                    increment(writes, deletedUri);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + op);
+        }
+    }
+
+    private static void increment(ConcurrentMap<Uri, AtomicInteger> counts, Uri uri) {
+        AtomicInteger count = counts.get(uri);
+        if (count == null) {
+            AtomicInteger newCount = new AtomicInteger();
+            count = counts.putIfAbsent(uri, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private static int total(ConcurrentMap<Uri, AtomicInteger> counts) {
+        int total = 0;
+        for (AtomicInteger count : counts.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /**
+     * Number of writes that got a notification of their pet. Each notification counts for one
+     * write only.
+     */
+    private int matchedNotifications() {
+        int matched = 0;
+        for (Map.Entry<Uri, AtomicInteger> write : writes.entrySet()) {
+            AtomicInteger received = notifications.get(write.getKey());
+            if (received != null) {
+                matched += Math.min(write.getValue().get(), received.get());
+            }
+        }
+        return matched;
+    }
+
+    private static void close(Cursor cursor) {
+        if (cursor != null) {
+//            Reading the count runs the query
+            cursor.getCount();
+            cursor.close();
+        }
+    }
+
+    private long randomId(Random random) {
+        long min = minId.get();
+        long range = maxId.get() - min + 1;
+        return min + (long) (random.nextDouble() * range);
+    }
+
+    private Uri randomPetUri(Random random) {
+        return PetEntry.withShelter(ContentUris.withAppendedId(PetEntry.CONTENT_URI, randomId(random)),
+                config.shelter);
+    }
+
+    private ContentValues randomPet(Random random) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, names[pick(nameDistribution, random)]);
+        values.put(PetEntry.COLUMN_PET_BREED, breeds[pick(breedDistribution, random)]);
+        values.put(PetEntry.COLUMN_PET_GENDER, random.nextInt(3));
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(50));
+        return values;
+    }
+
+    /**
+     * Cumulative Zipf distribution over n items with the given exponent.
+     */
+    private static double[] zipf(int n, double exponent) {
+        double[] cumulative = new double[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+
+    private static int pick(double[] cumulative, Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(cumulative.length - 1, index >= 0 ? index : -index - 1);
+    }
+
+    private static void summarize(List<long[][]> latencies, Report report) {
+        for (int op = 0; op < OPERATION_NAMES.length; op++) {
+            int count = 0;
+            for (long[][] thread : latencies) {
+                count += thread[op].length;
+            }
+            long[] all = new long[count];
+            int offset = 0;
+            for (long[][] thread : latencies) {
+                System.arraycopy(thread[op], 0, all, offset, thread[op].length);
+                offset += thread[op].length;
+            }
+            Arrays.sort(all);
+            report.counts[op] = count;
+            report.operations += count;
+            report.p50Micros[op] = percentile(all, 0.50);
+            report.p95Micros[op] = percentile(all, 0.95);
+            report.p99Micros[op] = percentile(all, 0.99);
+        }
+    }
+
+    /**
+     * Nearest-rank percentile of the sorted latencies, in microseconds.
+     */
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(sorted.length * percentile);
+        return sorted[Math.max(0, rank - 1)] / 1000;
+    }
+}
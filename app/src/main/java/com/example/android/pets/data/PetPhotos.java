@@ -0,0 +1,152 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link PetPhotos} keeps the photos of pets as JPEG files, in a directory per shelter. Every
+ * photo has a thumbnail that is made when the photo is written, so lists never decode full photos.
+ * <p>
+ * Files are written under a temporary name and renamed when complete, so readers see either the
+ * old or the new photo and never half of one.
+ */
+class PetPhotos {
+
+    private static final String PHOTO_DIRECTORY = "photos";
+    private static final String PHOTO_SUFFIX = ".jpg";
+    private static final String THUMBNAIL_SUFFIX = "_thumbnail.jpg";
+    private static final String TEMPORARY_PREFIX = "tmp";
+
+    private static final int PHOTO_QUALITY = 85;
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    private final File root;
+
+    PetPhotos(Context context) {
+        this.root = new File(context.getFilesDir(), PHOTO_DIRECTORY);
+    }
+
+    File photo(String shelter, long id) {
+        return new File(directory(shelter), id + PHOTO_SUFFIX);
+    }
+
+    File thumbnail(String shelter, long id) {
+        return new File(directory(shelter), id + THUMBNAIL_SUFFIX);
+    }
+
+    private File directory(String shelter) {
+        return new File(root, shelter);
+    }
+
+    /**
+     * Store the image read from the stream as the photo of the pet, scaled down to
+     * {@link PetEntry#PHOTO_MAX_SIZE}, and make its thumbnail.
+     *
+     * @throws IOException if the stream can't be read or is not an image
+     */
+    void store(String shelter, long id, InputStream in) throws IOException {
+        File directory = directory(shelter);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+//        The image is decoded twice, once for its size, so it has to be a file first
+        File upload = File.createTempFile(TEMPORARY_PREFIX, null, directory);
+        try {
+            OutputStream out = new FileOutputStream(upload);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+            File photo = photo(shelter, id);
+            writeScaled(upload, PetEntry.PHOTO_MAX_SIZE, PHOTO_QUALITY, photo);
+//            The photo is much smaller than the upload, so the thumbnail is made from it
+            writeScaled(photo, PetEntry.THUMBNAIL_MAX_SIZE, THUMBNAIL_QUALITY, thumbnail(shelter, id));
+        } finally {
+            upload.delete();
+        }
+    }
+
+    /**
+     * Remove the photo and thumbnail of the pet, if it has them.
+     */
+    void delete(String shelter, long id) {
+        photo(shelter, id).delete();
+        thumbnail(shelter, id).delete();
+    }
+
+    /**
+     * Remove the photos and thumbnails of all pets of the shelter.
+     */
+    void deleteAll(String shelter) {
+        File[] files = directory(shelter).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Write the image as JPEG whose longest side is at most maxSize. The image is decoded with the
+     * largest sample size that keeps it above maxSize, and only the rest is scaled.
+     */
+    private static void writeScaled(File source, int maxSize, int quality, File target) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image");
+        }
+        int longestSide = Math.max(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (longestSide / (options.inSampleSize * 2) >= maxSize) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(source.getPath(), options);
+        if (bitmap == null) {
+            throw new IOException("Cannot decode image");
+        }
+        try {
+            float scale = (float) maxSize / Math.max(bitmap.getWidth(), bitmap.getHeight());
+            if (scale < 1) {
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                        Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                        Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+            File temporary = File.createTempFile(TEMPORARY_PREFIX, null, target.getParentFile());
+            try {
+                OutputStream out = new FileOutputStream(temporary);
+                try {
+                    bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out);
+                } finally {
+                    out.close();
+                }
+                if (!temporary.renameTo(target)) {
+                    throw new IOException("Cannot rename " + temporary + " to " + target);
+                }
+            } finally {
+                temporary.delete();
+            }
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
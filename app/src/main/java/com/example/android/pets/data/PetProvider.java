@@ -1,15 +1,47 @@
 package com.example.android.pets.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
+import android.database.AbstractWindowedCursor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
+import android.util.Log;
 
+import com.example.android.pets.data.PetContract.ChangeEntry;
+import com.example.android.pets.data.PetContract.DraftEntry;
+import com.example.android.pets.data.PetContract.ImportEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.StatsEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * {@link ContentProvider} for Pets app.
@@ -30,6 +62,51 @@ public class PetProvider extends ContentProvider {
      */
     private static final int PET_ID = 101;
 
+    /**
+     * URI matcher code for the content URI of a full-text search over the pets table
+     */
+    private static final int PETS_SEARCH = 102;
+
+    /**
+     * URI matcher code for the content URI of the change log of the pets table
+     */
+    private static final int CHANGES = 103;
+
+    /**
+     * URI matcher code for the content URI of an export of the pets table
+     */
+    private static final int EXPORT = 104;
+
+    /**
+     * URI matcher code for the content URI of the progress of imports
+     */
+    private static final int IMPORTS = 105;
+
+    /**
+     * URI matcher code for the content URI of the editor drafts
+     */
+    private static final int DRAFTS = 106;
+
+    /**
+     * URI matcher code for the content URI of the editor draft of a single pet
+     */
+    private static final int DRAFT_ID = 107;
+
+    /**
+     * URI matcher code for the content URI of the pet statistics
+     */
+    private static final int STATS = 108;
+
+    /**
+     * URI matcher code for the content URI of the photo of a single pet
+     */
+    private static final int PET_PHOTO = 109;
+
+    /**
+     * URI matcher code for the content URI of the thumbnail of the photo of a single pet
+     */
+    private static final int PET_THUMBNAIL = 110;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -42,43 +119,269 @@ public class PetProvider extends ContentProvider {
         // The calls to addURI() go here, for all of the content URI patterns that the provider
         // should recognize. All paths added to the UriMatcher have a corresponding code to return
         // when a match is found.
-        uriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS, PETS);
-        uriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+        addUri(PetContract.PATH_PETS, PETS);
+        addUri(PetContract.PATH_PETS + "/#", PET_ID);
+        addUri(PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", PETS_SEARCH);
+        addUri(PetContract.PATH_PETS + "/" + PetContract.PATH_CHANGES, CHANGES);
+        addUri(PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT, EXPORT);
+        addUri(PetContract.PATH_PETS + "/" + PetContract.PATH_IMPORTS, IMPORTS);
+        addUri(PetContract.PATH_PETS + "/" + PetContract.PATH_DRAFTS, DRAFTS);
+        addUri(PetContract.PATH_PETS + "/" + PetContract.PATH_DRAFTS + "/#", DRAFT_ID);
+        addUri(PetContract.PATH_PETS + "/" + PetContract.PATH_STATS, STATS);
+        addUri(PetContract.PATH_PETS + "/#/" + PetContract.PATH_PHOTO, PET_PHOTO);
+        addUri(PetContract.PATH_PETS + "/#/" + PetContract.PATH_THUMBNAIL, PET_THUMBNAIL);
+    }
+
+    /**
+     * Match the path in the default shelter and below the shelter path of every other shelter,
+     * see {@link PetEntry#withShelter(Uri, String)}.
+     */
+    private static void addUri(String path, int code) {
+        uriMatcher.addURI(PetContract.CONTENT_AUTHORITY, path, code);
+        uriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_SHELTERS + "/*/" + path, code);
     }
 
     //
     PetDbHelper dbHelper;
 
+    /**
+     * Databases of all shelters. dbHelper is the one of the default shelter.
+     */
+    private PetShards shards;
+
+    /**
+     * URIs changed by the batch running on the current thread. Notifications are held here until
+     * the batch commits, so observers reload once per URI instead of once per operation.
+     * It is null when no batch is running.
+     */
+    private final ThreadLocal<Set<Uri>> pendingNotifications = new ThreadLocal<>();
+
+    /**
+     * A batch changing more pets than this notifies the whole list once instead of every pet.
+     */
+    private static final int MAX_BATCH_ITEM_NOTIFICATIONS = 16;
+
+    /**
+     * Number of pets a search returns unless its URI has a limit.
+     */
+    private static final int DEFAULT_SEARCH_LIMIT = 50;
+
+    /**
+     * Columns of a new pet, see {@link #isValidNewPet(ContentValues)}.
+     */
+    private static final List<String> NEW_PET_COLUMNS = Arrays.asList(PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT);
+
+    /**
+     * Results of recent queries. Every write has to invalidate it after the data changed.
+     */
+    private final PetQueryCache queryCache = new PetQueryCache();
+
+    /**
+     * Latency and row counters of all entry points.
+     */
+    private final PetProviderMetrics metrics = new PetProviderMetrics();
+
+    /**
+     * Operations slower than a threshold, with their query plans.
+     */
+    private final PetSlowQueryLog slowLog = new PetSlowQueryLog();
+
+    /**
+     * The statement the operation on the current thread ran, so a slow operation logs and explains
+     * the SQL that actually ran. Each thread reuses its own, so operations don't allocate one.
+     */
+    private final ThreadLocal<Statement> executedStatement = new ThreadLocal<Statement>() {
+        @Override
+        protected Statement initialValue() {
+            return new Statement();
+        }
+    };
+
+    /**
+     * Threads writing exports into their pipes. Further exports wait for a free thread.
+     */
+    private final ExecutorService exportExecutor = Executors.newFixedThreadPool(2);
+
+    /**
+     * Threads storing photos read from their pipes. Photos don't share the export threads, so a
+     * photo the user just picked isn't stuck behind a long export.
+     */
+    private final ExecutorService photoExecutor = Executors.newFixedThreadPool(2);
+
+    /**
+     * Photo files of all shelters.
+     */
+    private PetPhotos photos;
+
     /**
      * Initialize the provider and the database helper object.
      */
     @Override
     public boolean onCreate() {
-        dbHelper = new PetDbHelper(getContext());
+        dbHelper = new PetDbHelper(getContext(), true);
+        shards = new PetShards(getContext(), dbHelper);
+        photos = new PetPhotos(getContext());
         return true;
     }
 
+    /**
+     * Return the database of the shelter the URI refers to, see {@link PetEntry#withShelter(Uri, String)}.
+     *
+     * @param create whether to create the database of the shelter if it has none, only writes that
+     *               add rows need it
+     */
+    private PetDbHelper shard(Uri uri, boolean create) {
+        return shards.get(shelter(uri), create);
+    }
+
+    /**
+     * Return the name of the shelter the URI refers to.
+     */
+    private static String shelter(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2 || !segments.get(0).equals(PetContract.PATH_SHELTERS)) {
+            return PetEntry.DEFAULT_SHELTER;
+        }
+//        Observers of the default shelter watch the URIs without a shelter path, so it has no other
+        if (segments.get(1).equals(PetEntry.DEFAULT_SHELTER)) {
+            throw new IllegalArgumentException("The default shelter has no shelter path " + uri);
+        }
+        return segments.get(1);
+    }
+
+    /**
+     * Return the list URI of the shelter, which every change in the shelter is a descendant of.
+     */
+    private static Uri shelterUri(String shelter) {
+        return PetEntry.withShelter(PetEntry.CONTENT_URI, shelter);
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Get readable database
-        SQLiteDatabase database = dbHelper.getReadableDatabase();
-
-        // This cursor will hold the result of the query
-        Cursor cursor;
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
 
+    /**
+     * Perform the query for the given URI. When the signal is cancelled SQLite stops the query
+     * and an {@link android.os.OperationCanceledException} is thrown.
+     */
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        long start = System.nanoTime();
         // Figure out if the URI matcher can match the URI to a specific code
         int match = uriMatcher.match(uri);
+        Cursor cursor = null;
+        Statement statement = executedStatement.get();
+        statement.active = true;
+        try {
+            cursor = query(match, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+            return cursor;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            int rows = knownCount(cursor);
+            metrics.record(PetProviderMetrics.OP_QUERY, metricsTarget(match), elapsed, rows);
+            if (slowLog.isSlow(elapsed)) {
+                logSlowOperation("query", statement, uri, elapsed, rows);
+            }
+            statement.clear();
+        }
+    }
+
+    /**
+     * Perform the query for the given URI matcher code.
+     */
+    private Cursor query(int match, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                         String sortOrder, CancellationSignal cancellationSignal) {
+        // Observers of the cursor are notified about changes to this URI.
+        // Search results, the change log and the statistics change with any pet of the shelter,
+        // not only with pets under their URI. A list over all shelters changes with every shelter.
+        String shelter = shelter(uri);
+        Uri notificationUri = uri;
+        if (PetEntry.ALL_SHELTERS.equals(shelter)) {
+            notificationUri = PetContract.BASE_CONTENT_URI;
+        } else if (match == PETS_SEARCH || match == CHANGES || match == STATS) {
+            notificationUri = shelterUri(shelter);
+        }
+
+        // Drafts are read once when the editor opens, caching them doesn't pay off.
+        if (match == DRAFT_ID) {
+            Cursor draft = select(shard(uri, false).getReadableDatabase(), DraftEntry.TABLE_NAME, projection,
+                    DraftEntry.COLUMN_PET_ID + "=?", new String[]{String.valueOf(ContentUris.parseId(uri))},
+                    null, null, cancellationSignal);
+            draft.setNotificationUri(getContext().getContentResolver(), notificationUri);
+            return draft;
+        }
+
+        // This cursor will hold the result of the query.
+        // Nothing has to be read if the same query was answered since the last write.
+        String cacheKey = PetQueryCache.key(uri, projection, selection, selectionArgs, sortOrder);
+        Cursor cursor = queryCache.get(shelter, cacheKey);
+        if (cursor != null) {
+            cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+            return cursor;
+        }
+        long generation = queryCache.generation(shelter);
+
+        // After a change all observers requery at once. If the same query is already running,
+        // wait for its rows instead of running it again.
+        PetQueryCache.Flight flight = queryCache.join(cacheKey, generation);
+        if (flight != null) {
+            cursor = queryCache.await(flight, cancellationSignal);
+            if (cursor != null) {
+                cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+                return cursor;
+            }
+        }
+        try {
+            cursor = execute(match, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+            cursor = queryCache.put(shelter, cacheKey, generation, cursor);
+        } finally {
+            if (flight == null) {
+                queryCache.land(cacheKey, generation);
+            }
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+        return cursor;
+    }
+
+    /**
+     * Run the query for the given URI matcher code on the database.
+     */
+    private Cursor execute(int match, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                           String sortOrder, CancellationSignal cancellationSignal) {
+        // A query over all shelters runs on every shard and merges the results.
+        if (PetEntry.ALL_SHELTERS.equals(shelter(uri))) {
+            if (match != PETS || uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT) != null) {
+                throw new IllegalArgumentException("Only unpaged pet lists can span all shelters " + uri);
+            }
+            String sql = SQLiteQueryBuilder.buildQueryString(false, PetEntry.TABLE_NAME, projection, selection,
+                    null, null, sortOrder, null);
+//            Every shard runs the same statement, the plan is the one of the default shelter
+            recordStatement(dbHelper.getReadableDatabase(), sql, selectionArgs);
+            return shards.queryAll(sql, selectionArgs, sortOrder, cancellationSignal);
+        }
+
+        // Get readable database of the shelter
+        SQLiteDatabase database = shard(uri, false).getReadableDatabase();
+        Cursor cursor;
         switch (match) {
             case PETS:
+                // A limit in the URI asks for a single page of pets, see queryPage().
+                if (uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT) != null) {
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs, cancellationSignal);
+                    break;
+                }
                 // For the PETS code, query the pets table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = select(database, PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        sortOrder, null, cancellationSignal);
                 break;
             case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI.
@@ -94,21 +397,233 @@ public class PetProvider extends ContentProvider {
 
                 // This will perform a query on the pets table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = select(database, PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        sortOrder, null, cancellationSignal);
+                break;
+            case PETS_SEARCH:
+                cursor = querySearch(database, uri, projection, selection, selectionArgs, sortOrder,
+                        cancellationSignal);
+                break;
+            case CHANGES:
+                cursor = queryChanges(database, uri, projection, selection, selectionArgs, cancellationSignal);
+                break;
+            case IMPORTS:
+                cursor = select(database, ImportEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        sortOrder, null, cancellationSignal);
+                break;
+            case STATS:
+                // The counts are kept up to date by triggers, reading them doesn't touch the pets.
+                String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT) == null ? null
+                        : String.valueOf(parseQueryParameter(uri, PetEntry.QUERY_PARAMETER_LIMIT));
+                if (sortOrder == null) {
+                    sortOrder = StatsEntry.COLUMN_KIND + ", " + StatsEntry.COLUMN_COUNT + " DESC";
+                }
+                cursor = select(database, StatsEntry.VIEW_NAME, projection, selection, selectionArgs,
+                        sortOrder, limit, cancellationSignal);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
-
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
 
+    /**
+     * Query pets matching the search text in the last segment of the URI, using the full-text
+     * index. Every word of the text has to be a prefix of a word in the name or breed. Unless the
+     * caller gives a sort order, pets whose name starts with the first word come first. At most
+     * {@link #DEFAULT_SEARCH_LIMIT} pets are returned, or the {@link PetEntry#QUERY_PARAMETER_LIMIT}
+     * of the URI.
+     */
+    private Cursor querySearch(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                               String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+//        Lower case keeps words like "or" from being read as operators
+        String[] words = uri.getLastPathSegment().toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        StringBuilder match = new StringBuilder();
+        for (String word : words) {
+            if (!word.isEmpty()) {
+                match.append(match.length() == 0 ? "" : " ").append(word).append('*');
+            }
+        }
+//        Nothing to search for, so nothing matches
+        if (match.length() == 0) {
+            return select(database, PetEntry.TABLE_NAME, projection, "0", null, null, null, cancellationSignal);
+        }
+
+        String where = PetEntry._ID + " IN (SELECT docid FROM " + PetEntry.SEARCH_TABLE_NAME
+                + " WHERE " + PetEntry.SEARCH_TABLE_NAME + " MATCH ?)";
+        if (selection != null) {
+            where += " AND (" + selection + ")";
+        }
+        List<String> whereArgs = new ArrayList<>();
+        whereArgs.add(match.toString());
+        if (selectionArgs != null) {
+            whereArgs.addAll(Arrays.asList(selectionArgs));
+        }
+        if (sortOrder == null) {
+//            The argument for the ranking comes after the ones of the selection
+            sortOrder = "CASE WHEN " + PetEntry.COLUMN_PET_NAME + " LIKE ? THEN 0 ELSE 1 END, "
+                    + PetEntry.COLUMN_PET_NAME;
+            whereArgs.add(match.substring(0, match.indexOf("*")) + "%");
+        }
+//        With a limit SQLite only keeps the best rows while sorting, not every match
+        long limit = DEFAULT_SEARCH_LIMIT;
+        if (uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT) != null) {
+            limit = parseQueryParameter(uri, PetEntry.QUERY_PARAMETER_LIMIT);
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Search limit has to be positive in " + uri);
+            }
+        }
+        return select(database, PetEntry.TABLE_NAME, projection, where,
+                whereArgs.toArray(new String[whereArgs.size()]), sortOrder, String.valueOf(limit),
+                cancellationSignal);
+    }
+
+    /**
+     * Query the change log for changes after the sequence number in the
+     * {@link ChangeEntry#QUERY_PARAMETER_SINCE} parameter, oldest first.
+     */
+    private Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                                String[] selectionArgs, CancellationSignal cancellationSignal) {
+        long since = 0;
+        if (uri.getQueryParameter(ChangeEntry.QUERY_PARAMETER_SINCE) != null) {
+            since = parseQueryParameter(uri, ChangeEntry.QUERY_PARAMETER_SINCE);
+        }
+        String limit = null;
+        if (uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT) != null) {
+            limit = String.valueOf(parseQueryParameter(uri, PetEntry.QUERY_PARAMETER_LIMIT));
+        }
+        String where = ChangeEntry.COLUMN_SEQUENCE + ">?";
+        if (selection != null) {
+            where += " AND (" + selection + ")";
+        }
+        List<String> whereArgs = new ArrayList<>();
+        whereArgs.add(String.valueOf(since));
+        if (selectionArgs != null) {
+            whereArgs.addAll(Arrays.asList(selectionArgs));
+        }
+        return select(database, ChangeEntry.TABLE_NAME, projection, where,
+                whereArgs.toArray(new String[whereArgs.size()]), ChangeEntry.COLUMN_SEQUENCE + " ASC", limit,
+                cancellationSignal);
+    }
+
+    /**
+     * Query one page of pets using the id as keyset: rows after (or before) the given id, sorted
+     * by id. Unlike OFFSET, the cost of a page doesn't depend on how deep into the table it is,
+     * and the cursor only ever holds one page. The sort order of the caller is ignored.
+     */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                             String[] selectionArgs, CancellationSignal cancellationSignal) {
+        if (projection != null && !Arrays.asList(projection).contains(PetEntry._ID)) {
+            throw new IllegalArgumentException("Paged query requires the " + PetEntry._ID + " column");
+        }
+        long pageSize = parseQueryParameter(uri, PetEntry.QUERY_PARAMETER_LIMIT);
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page limit has to be positive in " + uri);
+        }
+        String limit = String.valueOf(pageSize);
+        String afterId = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID);
+        String beforeId = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_BEFORE_ID);
+
+//        Without a keyset this is simply the first page
+        if (afterId == null && beforeId == null) {
+            return select(database, PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                    PetEntry._ID + " ASC", limit, cancellationSignal);
+        }
+
+        boolean backwards = beforeId != null;
+        String keyset = PetEntry._ID + (backwards ? "<?" : ">?");
+        String keyArg = String.valueOf(parseQueryParameter(uri, backwards
+                ? PetEntry.QUERY_PARAMETER_BEFORE_ID : PetEntry.QUERY_PARAMETER_AFTER_ID));
+        String where = selection == null ? keyset : "(" + selection + ") AND " + keyset;
+        String[] whereArgs;
+        if (selectionArgs == null) {
+            whereArgs = new String[]{keyArg};
+        } else {
+            whereArgs = Arrays.copyOf(selectionArgs, selectionArgs.length + 1);
+            whereArgs[selectionArgs.length] = keyArg;
+        }
+
+        if (!backwards) {
+            return select(database, PetEntry.TABLE_NAME, projection, where, whereArgs,
+                    PetEntry._ID + " ASC", limit, cancellationSignal);
+        }
+//        Walk the index backwards to find the page, then return it in ascending order
+        String page = SQLiteQueryBuilder.buildQueryString(false, PetEntry.TABLE_NAME, projection, where,
+                null, null, PetEntry._ID + " DESC", limit);
+        String sql = "SELECT * FROM (" + page + ") ORDER BY " + PetEntry._ID + " ASC";
+        recordStatement(database, sql, whereArgs);
+        return database.rawQuery(sql, whereArgs, cancellationSignal);
+    }
+
+    /**
+     * Run a SELECT statement and remember it for the slow operation log.
+     */
+    private Cursor select(SQLiteDatabase database, String table, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder, String limit,
+                          CancellationSignal cancellationSignal) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection, selection,
+                null, null, sortOrder, limit);
+        recordStatement(database, sql, selectionArgs);
+        return database.rawQuery(sql, selectionArgs, cancellationSignal);
+    }
+
+    /**
+     * Run an UPDATE statement and remember it for the slow operation log.
+     */
+    private int updateRows(SQLiteDatabase database, String table, ContentValues values, String whereClause,
+                           String[] whereArgs) {
+//        Same statement as SQLiteDatabase builds. The values can be null, which can't be bound as
+//        text, so the plan is explained without arguments. It doesn't depend on them anyway.
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        String separator = "";
+        for (String column : values.keySet()) {
+            sql.append(separator).append(column).append("=?");
+            separator = ",";
+        }
+        if (whereClause != null) {
+            sql.append(" WHERE ").append(whereClause);
+        }
+        recordStatement(database, sql.toString(), null);
+        return database.update(table, values, whereClause, whereArgs);
+    }
+
+    /**
+     * Run a DELETE statement and remember it for the slow operation log.
+     */
+    private int deleteRows(SQLiteDatabase database, String table, String whereClause, String[] whereArgs) {
+        recordStatement(database, "DELETE FROM " + table
+                + (whereClause == null ? "" : " WHERE " + whereClause), whereArgs);
+        return database.delete(table, whereClause, whereArgs);
+    }
+
+    /**
+     * Remember the statement the current operation runs, if it is one that gets logged.
+     */
+    private void recordStatement(SQLiteDatabase database, String sql, String[] args) {
+        Statement statement = executedStatement.get();
+        if (statement.active) {
+            statement.database = database;
+            statement.sql = sql;
+            statement.args = args;
+        }
+    }
+
+    /**
+     * Parse a numeric query parameter of the URI.
+     */
+    private static long parseQueryParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " in " + uri);
+        }
+    }
+
     /**
      * Validate new data from the given ContentValues.
      */
-    private boolean isValidData(ContentValues values) {
+    static boolean isValidData(ContentValues values) {
 //        Data validation,
 //        name cannot be null or empty string,
 //        breed can be null,
@@ -135,6 +650,11 @@ public class PetProvider extends ContentProvider {
                 throw new IllegalArgumentException("Pet requires valid weight");
             }
         }
+
+//        The photo version follows the photo files, only writing the photo changes it
+        if (values.containsKey(PetEntry.COLUMN_PET_PHOTO_VERSION)) {
+            throw new IllegalArgumentException("Photo version is set by writing the photo");
+        }
         return true;
     }
 
@@ -143,12 +663,26 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues contentValues) {
+        long start = System.nanoTime();
         final int match = uriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return insertPet(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        Uri newUri = null;
+        try {
+            switch (match) {
+                case PETS:
+                    newUri = insertPet(uri, contentValues);
+                    return newUri;
+                case IMPORTS:
+                    newUri = insertImport(uri, contentValues);
+                    return newUri;
+                case DRAFTS:
+                    newUri = insertDraft(uri, contentValues);
+                    return newUri;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            metrics.record(PetProviderMetrics.OP_INSERT, metricsTarget(match), System.nanoTime() - start,
+                    newUri == null ? 0 : 1);
         }
     }
 
@@ -158,20 +692,154 @@ public class PetProvider extends ContentProvider {
      */
     private Uri insertPet(Uri uri, ContentValues values) {
 //    Check if data is valid
+        isValidNewPet(values);
+
+        PetDbHelper shard = shard(uri, true);
+        SQLiteDatabase database = shard.getWritableDatabase();
+        long id = database.insert(PetEntry.STORAGE_TABLE_NAME, null, storageValues(shard, database, values));
+        if (id == -1) {
+            return null;
+        }
+        // Once we know the ID of the new row in the table, return the new URI with the ID
+        // appended to the end of it. Only observers of this pet and of the whole list are notified.
+        Uri newUri = ContentUris.withAppendedId(uri, id);
+        queryCache.invalidate(shelter(uri));
+        notifyChange(newUri);
+        return newUri;
+    }
+
+    /**
+     * Insert or replace the progress of an import. Nobody observes it, so nothing is notified.
+     */
+    private Uri insertImport(Uri uri, ContentValues values) {
+        if (values.getAsString(ImportEntry.COLUMN_SOURCE) == null) {
+            throw new IllegalArgumentException("Import requires a source");
+        }
+        SQLiteDatabase database = shard(uri, true).getWritableDatabase();
+        long id = database.insertWithOnConflict(ImportEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+        if (id == -1) {
+            return null;
+        }
+        queryCache.invalidate(shelter(uri));
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Insert or replace the draft of a pet. Drafts are never cached and nobody observes them, so
+     * neither the cache nor the observers have to know.
+     */
+    private Uri insertDraft(Uri uri, ContentValues values) {
+        Long petId = values.getAsLong(DraftEntry.COLUMN_PET_ID);
+        if (petId == null) {
+            throw new IllegalArgumentException("Draft requires a pet id");
+        }
+        SQLiteDatabase database = shard(uri, true).getWritableDatabase();
+        if (database.insertWithOnConflict(DraftEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE) == -1) {
+            return null;
+        }
+        return ContentUris.withAppendedId(uri, petId);
+    }
+
+    /**
+     * Validate a complete row for a new pet. Every column except the id has to be present, and no
+     * other column.
+     */
+    static boolean isValidNewPet(ContentValues values) {
+        for (String column : values.keySet()) {
+            if (!NEW_PET_COLUMNS.contains(column)) {
+                throw new IllegalArgumentException("Unknown pet column " + column);
+            }
+        }
+//        isValidData() only checks the columns that are present
+        if (!values.containsKey(PetEntry.COLUMN_PET_NAME)) {
+            throw new IllegalArgumentException("Pet requires a name");
+        }
+        if (!values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
+            throw new IllegalArgumentException("Pet requires valid gender");
+        }
         if (values.size() != PetEntry.NUMBER_OF_ADDITIONAL_COLUMNS) {
-            throw new IllegalArgumentException("Pet inserting requires"
+            throw new IllegalArgumentException("Pet inserting requires "
                     + PetEntry.NUMBER_OF_ADDITIONAL_COLUMNS
-                    + "values");
+                    + " values");
         }
-        isValidData(values);
+        return isValidData(values);
+    }
 
-        SQLiteDatabase database = dbHelper.getWritableDatabase();
-        long id = database.insert(PetEntry.TABLE_NAME, null, values);
+    /**
+     * Insert many pets at once. All rows are validated before anything is written, then they are
+     * inserted in a single transaction through one compiled statement and observers are notified
+     * once at the end. If any row is invalid nothing is inserted.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        long start = System.nanoTime();
+        final int match = uriMatcher.match(uri);
+        int rowsInserted = 0;
+        try {
+            switch (match) {
+                case PETS:
+                    rowsInserted = bulkInsertPets(uri, values);
+                    return rowsInserted;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            metrics.record(PetProviderMetrics.OP_BULK_INSERT, metricsTarget(match),
+                    System.nanoTime() - start, rowsInserted);
+        }
+    }
 
-        getContext().getContentResolver().notifyChange(uri, null);
-        // Once we know the ID of the new row in the table,
-        // return the new URI with the ID appended to the end of it or null if insert failed
-        return (id != -1) ? ContentUris.withAppendedId(uri, id) : null;
+    /**
+     * Insert all given pets in one transaction. Return the number of inserted rows.
+     */
+    private int bulkInsertPets(Uri uri, ContentValues[] values) {
+//        Validate up front, so a bad row in the middle doesn't leave half of the batch behind
+        for (ContentValues pet : values) {
+            isValidNewPet(pet);
+        }
+        if (values.length == 0) {
+            return 0;
+        }
+
+        PetDbHelper shard = shard(uri, true);
+        SQLiteDatabase database = shard.getWritableDatabase();
+        SQLiteStatement statement = database.compileStatement("INSERT INTO " + PetEntry.STORAGE_TABLE_NAME + " ("
+                + PetEntry.COLUMN_PET_NAME + ", "
+                + PetEntry.COLUMN_PET_BREED_ID + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", "
+                + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)");
+        int rowsInserted = 0;
+        shard.beginTransaction(database);
+        try {
+            for (ContentValues pet : values) {
+                statement.clearBindings();
+                statement.bindString(1, pet.getAsString(PetEntry.COLUMN_PET_NAME));
+                String breed = pet.getAsString(PetEntry.COLUMN_PET_BREED);
+                if (breed != null) {
+                    statement.bindLong(2, shard.breedId(database, breed));
+                }
+                statement.bindLong(3, pet.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+//                Missing weight falls back to the column default
+                Integer weight = pet.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+                statement.bindLong(4, weight != null ? weight : 0);
+                if (statement.executeInsert() != -1) {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+        }
+
+        if (rowsInserted != 0) {
+            queryCache.invalidate(shelter(uri));
+            notifyChange(uri);
+            shard.checkpoint();
+        }
+        return rowsInserted;
     }
 
     /**
@@ -180,19 +848,34 @@ public class PetProvider extends ContentProvider {
     @Override
     public int update(@NonNull Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        long start = System.nanoTime();
         final int match = uriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            case PET_ID:
-                // For the PET_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+        int rowsUpdated = 0;
+        Statement statement = executedStatement.get();
+        statement.active = true;
+        try {
+            switch (match) {
+                case PETS:
+                    rowsUpdated = updatePet(uri, contentValues, selection, selectionArgs);
+                    return rowsUpdated;
+                case PET_ID:
+                    // For the PET_ID code, extract out the ID from the URI,
+                    // so we know which row to update. Selection will be "_id=?" and selection
+                    // arguments will be a String array containing the actual ID.
+                    selection = PetEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    rowsUpdated = updatePet(uri, contentValues, selection, selectionArgs);
+                    return rowsUpdated;
+                default:
+                    throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.record(PetProviderMetrics.OP_UPDATE, metricsTarget(match), elapsed, rowsUpdated);
+            if (slowLog.isSlow(elapsed)) {
+                logSlowOperation("update", statement, uri, elapsed, rowsUpdated);
+            }
+            statement.clear();
         }
     }
 
@@ -211,10 +894,68 @@ public class PetProvider extends ContentProvider {
             return 0;
         }
 
-        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        // A shelter without a database has no pets to update, it doesn't need one
+        PetDbHelper shard = shard(uri, false);
+        SQLiteDatabase database = shard.getWritableDatabase();
 
-        getContext().getContentResolver().notifyChange(uri, null);
-        return database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated = updateRows(database, PetEntry.STORAGE_TABLE_NAME, storageValues(shard, database, values),
+                storageSelection(selection), selectionArgs);
+        // Notify only once the rows changed. For a single pet this is the URI of the pet,
+        // so editors of other pets don't reload.
+        if (rowsUpdated != 0) {
+            queryCache.invalidate(shelter(uri));
+            notifyChange(uri);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Ids of the pets matching the selection that have a photo.
+     */
+    private static List<Long> photoIds(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = database.query(PetEntry.TABLE_NAME, new String[]{PetEntry._ID},
+                "(" + selection + ") AND " + PetEntry.COLUMN_PET_PHOTO_VERSION + " != 0", selectionArgs,
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Turn pet values of the contract into values of the storage table, with the breed replaced
+     * by its id.
+     */
+    private static ContentValues storageValues(PetDbHelper shard, SQLiteDatabase database, ContentValues values) {
+        if (!values.containsKey(PetEntry.COLUMN_PET_BREED)) {
+            return values;
+        }
+        ContentValues stored = new ContentValues(values);
+        String breed = stored.getAsString(PetEntry.COLUMN_PET_BREED);
+        stored.remove(PetEntry.COLUMN_PET_BREED);
+        if (breed == null) {
+            stored.putNull(PetEntry.COLUMN_PET_BREED_ID);
+        } else {
+            stored.put(PetEntry.COLUMN_PET_BREED_ID, shard.breedId(database, breed));
+        }
+        return stored;
+    }
+
+    /**
+     * Turn a selection on the pets view into one on the storage table. Selections may use every
+     * column of the view, so other than the selection of a single id they go through the view.
+     */
+    private static String storageSelection(String selection) {
+        if (selection == null || selection.equals(PetEntry._ID + "=?")) {
+            return selection;
+        }
+        return PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME
+                + " WHERE (" + selection + "))";
     }
 
     /**
@@ -222,30 +963,542 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
-        // Get writable database
-        SQLiteDatabase database = dbHelper.getWritableDatabase();
-        int rowsDeleted;
+        long start = System.nanoTime();
         final int match = uriMatcher.match(uri);
+        int rowsDeleted = 0;
+        Statement statement = executedStatement.get();
+        statement.active = true;
+        try {
+            rowsDeleted = delete(match, uri, selection, selectionArgs);
+            return rowsDeleted;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.record(PetProviderMetrics.OP_DELETE, metricsTarget(match), elapsed, rowsDeleted);
+            if (slowLog.isSlow(elapsed)) {
+                logSlowOperation("delete", statement, uri, elapsed, rowsDeleted);
+            }
+            statement.clear();
+        }
+    }
+
+    /**
+     * Delete the data for the given URI matcher code.
+     */
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
+        // Get writable database of the shelter, a shelter without one has nothing to delete
+        PetDbHelper shard = shard(uri, false);
+        String shelter = shelter(uri);
+        SQLiteDatabase database = shard.getWritableDatabase();
+        int rowsDeleted;
         switch (match) {
             case PETS:
+                if (selection == null) {
+                    rowsDeleted = deleteRows(database, PetEntry.STORAGE_TABLE_NAME, null, selectionArgs);
+                    photos.deleteAll(shelter);
+                    break;
+                }
+                // Photos of the deleted pets go too, find them before the rows are gone
+                List<Long> photoIds = photoIds(database, selection, selectionArgs);
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = deleteRows(database, PetEntry.STORAGE_TABLE_NAME, storageSelection(selection),
+                        selectionArgs);
+                for (long id : photoIds) {
+                    photos.delete(shelter, id);
+                }
                 break;
             case PET_ID:
                 // Delete a single row given by the ID in the URI
                 selection = PetEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = deleteRows(database, PetEntry.STORAGE_TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    photos.delete(shelter, ContentUris.parseId(uri));
+                }
                 break;
+            case PET_PHOTO:
+                long id = petId(uri);
+                photos.delete(shelter, id);
+                return setPhotoVersion(shard, shelter, id, 0);
+            case IMPORTS:
+                rowsDeleted = deleteRows(database, ImportEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    queryCache.invalidate(shelter);
+                }
+                return rowsDeleted;
+            case DRAFT_ID:
+                return deleteRows(database, DraftEntry.TABLE_NAME, DraftEntry.COLUMN_PET_ID + "=?",
+                        new String[]{String.valueOf(ContentUris.parseId(uri))});
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            queryCache.invalidate(shelter);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
+    /**
+     * Apply all operations in a single transaction. If any operation fails the whole batch is
+     * rolled back. Change notifications are sent after the commit, once for every distinct URI.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long start = System.nanoTime();
+        try {
+            return applyBatchInTransaction(operations);
+        } finally {
+            metrics.record(PetProviderMetrics.OP_APPLY_BATCH, batchMetricsTarget(operations),
+                    System.nanoTime() - start, operations.size());
+        }
+    }
+
+    private ContentProviderResult[] applyBatchInTransaction(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+//        Nested batches join the outer one and leave the notifications to it
+        if (pendingNotifications.get() != null) {
+            return super.applyBatch(operations);
+        }
+
+//        A transaction can't span database files, so neither can a batch
+        String shelter = null;
+        for (ContentProviderOperation operation : operations) {
+            String operationShelter;
+            try {
+                operationShelter = shelter(operation.getUri());
+            } catch (IllegalArgumentException e) {
+                throw new OperationApplicationException(e.getMessage());
+            }
+            if (PetEntry.ALL_SHELTERS.equals(operationShelter)) {
+                throw new OperationApplicationException("A batch cannot write to all shelters "
+                        + operation.getUri());
+            }
+            if (shelter != null && !shelter.equals(operationShelter)) {
+                throw new OperationApplicationException("A batch cannot span shelters");
+            }
+            shelter = operationShelter;
+        }
+        if (shelter == null) {
+            shelter = PetEntry.DEFAULT_SHELTER;
+        }
+        PetDbHelper shard = shards.get(shelter, true);
+
+        SQLiteDatabase database = shard.getWritableDatabase();
+        Set<Uri> changedUris = new LinkedHashSet<>();
+        ContentProviderResult[] results;
+        pendingNotifications.set(changedUris);
+        shard.beginTransaction(database);
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            pendingNotifications.remove();
+//            Other threads may have cached what they read during the batch, which is stale now
+            queryCache.invalidate(shelter);
+        }
+
+        notifyBatchChanges(shelter, changedUris);
+        if (!changedUris.isEmpty()) {
+            shard.checkpoint();
+        }
+        return results;
+    }
+
+    /**
+     * Provider specific methods, see {@link PetContract#METHOD_CACHE_STATS},
+     * {@link PetContract#METHOD_METRICS}, {@link PetContract#METHOD_SLOW_LOG} and
+     * {@link PetContract#METHOD_SET_SLOW_THRESHOLD}.
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        long start = System.nanoTime();
+        try {
+            return callMethod(method, arg, extras);
+        } finally {
+            metrics.record(PetProviderMetrics.OP_CALL, PetProviderMetrics.TARGET_OTHER,
+                    System.nanoTime() - start, 0);
+        }
+    }
+
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        switch (method) {
+            case PetContract.METHOD_CACHE_STATS:
+                return queryCache.stats();
+            case PetContract.METHOD_METRICS:
+                return metrics.snapshot();
+            case PetContract.METHOD_SLOW_LOG:
+                return slowLog.snapshot();
+            case PetContract.METHOD_SET_SLOW_THRESHOLD:
+                try {
+                    slowLog.setThresholdMillis(Long.parseLong(arg));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid slow operation threshold " + arg);
+                }
+                return null;
+            case PetContract.METHOD_REBUILD_STATS:
+                String shelter = arg == null ? PetEntry.DEFAULT_SHELTER : arg;
+                PetDbHelper.rebuildStats(shards.get(shelter, false).getWritableDatabase());
+                queryCache.invalidate(shelter);
+                notifyChange(PetEntry.withShelter(StatsEntry.CONTENT_URI, shelter));
+                return null;
+            case PetContract.METHOD_CHECK_STATS:
+                Bundle check = new Bundle();
+                check.putLong(PetContract.STATS_CHECK_MISMATCHES,
+                        PetDbHelper.checkStats(shards.get(arg, false).getReadableDatabase()));
+                return check;
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * Add a slow operation to the slow log, with the plan SQLite chose for the statement it ran.
+     * The plan is only computed here, so operations below the threshold don't pay for it.
+     */
+    private void logSlowOperation(String operation, Statement statement, Uri uri, long elapsedNanos, int rows) {
+        if (statement.sql == null) {
+//            Answered by the query cache, or failed before reaching the database
+            slowLog.record(operation, "no statement for " + uri, 0, elapsedNanos, rows, "");
+            return;
+        }
+        slowLog.record(operation, statement.sql, statement.args == null ? 0 : statement.args.length,
+                elapsedNanos, rows, explainQueryPlan(statement.database, statement.sql, statement.args));
+    }
+
+    /**
+     * Return the steps of the query plan of the statement, one per line.
+     */
+    private static String explainQueryPlan(SQLiteDatabase database, String sql, String[] args) {
+        StringBuilder plan = new StringBuilder();
+        try {
+            Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            try {
+                int detailColumn = cursor.getColumnIndexOrThrow("detail");
+                while (cursor.moveToNext()) {
+                    plan.append(plan.length() == 0 ? "" : "\n").append(cursor.getString(detailColumn));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            // The operation itself may have failed on the same statement
+            Log.w(LOG_TAG, "Cannot explain " + sql, e);
+            plan.append("unavailable: ").append(e.getMessage());
+        }
+        return plan.toString();
+    }
+
+    /**
+     * A statement run by a provider operation, see {@link #executedStatement}.
+     */
+    private static final class Statement {
+        /**
+         * Whether an operation that gets logged is running, only then statements are recorded.
+         */
+        boolean active;
+        SQLiteDatabase database;
+        String sql;
+        String[] args;
+
+        /**
+         * Forget the statement once the operation ended, so it doesn't keep its database or
+         * arguments.
+         */
+        void clear() {
+            active = false;
+            database = null;
+            sql = null;
+            args = null;
+        }
+    }
+
+    /**
+     * Return the number of rows of the cursor if counting them doesn't run the query, else 0. A
+     * cursor straight from SQLite is only counted once it filled its first window.
+     */
+    private static int knownCount(Cursor cursor) {
+        if (cursor == null
+                || cursor instanceof AbstractWindowedCursor && !((AbstractWindowedCursor) cursor).hasWindow()) {
+            return 0;
+        }
+        return cursor.getCount();
+    }
+
+    /**
+     * Map a URI matcher code to the target the metrics are kept for.
+     */
+    private static int metricsTarget(int match) {
+        switch (match) {
+            case PETS:
+                return PetProviderMetrics.TARGET_PETS;
+            case PET_ID:
+                return PetProviderMetrics.TARGET_PET_ID;
+            case PETS_SEARCH:
+                return PetProviderMetrics.TARGET_SEARCH;
+            case PET_PHOTO:
+            case PET_THUMBNAIL:
+                return PetProviderMetrics.TARGET_PHOTO;
+            case EXPORT:
+                return PetProviderMetrics.TARGET_EXPORT;
+            default:
+                return PetProviderMetrics.TARGET_OTHER;
+        }
+    }
+
+    /**
+     * The target of a batch is the target of its operations, or other if they have different ones.
+     */
+    private int batchMetricsTarget(List<ContentProviderOperation> operations) {
+        int target = -1;
+        for (ContentProviderOperation operation : operations) {
+            int operationTarget = metricsTarget(uriMatcher.match(operation.getUri()));
+            if (target != -1 && target != operationTarget) {
+                return PetProviderMetrics.TARGET_OTHER;
+            }
+            target = operationTarget;
+        }
+        return target == -1 ? PetProviderMetrics.TARGET_OTHER : target;
+    }
+
+    /**
+     * Send the notifications held back during a batch. A change to the whole list already reaches
+     * the observers of every single pet, and so does a single list notification instead of many
+     * pet notifications.
+     */
+    private void notifyBatchChanges(String shelter, Set<Uri> changedUris) {
+        ContentResolver resolver = getContext().getContentResolver();
+        Uri listUri = shelterUri(shelter);
+        if (changedUris.size() > MAX_BATCH_ITEM_NOTIFICATIONS || changedUris.contains(listUri)) {
+            resolver.notifyChange(listUri, null);
+            return;
+        }
+        for (Uri uri : changedUris) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Notify observers that the data at the given URI has changed. Inside of a batch
+     * the notification is delayed until the batch commits.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> changedUris = pendingNotifications.get();
+        if (changedUris != null) {
+            changedUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Open an export of all pets, see {@link PetEntry#CONTENT_EXPORT_URI}. The format is taken
+     * from the {@link PetEntry#QUERY_PARAMETER_FORMAT} parameter.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        long start = System.nanoTime();
+        int match = uriMatcher.match(uri);
+        try {
+            return openFile(match, uri, mode);
+        } finally {
+            metrics.record(PetProviderMetrics.OP_OPEN_FILE, metricsTarget(match), System.nanoTime() - start, 0);
+        }
+    }
+
+    private ParcelFileDescriptor openFile(int match, Uri uri, String mode) throws FileNotFoundException {
+        if (match == PET_PHOTO || match == PET_THUMBNAIL) {
+            return openPhoto(match, uri, mode);
+        }
+        if (match != EXPORT) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Export can only be read, not opened with mode " + mode);
+        }
+        return openExport(uri, exportFormat(uri));
+    }
+
+    /**
+     * Open an export of all pets in the format matching the MIME type filter.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri, @NonNull String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        if (uriMatcher.match(uri) != EXPORT) {
+//            The default implementation opens the file with openFile, which records it
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        long start = System.nanoTime();
+        try {
+            return openTypedExport(uri, mimeTypeFilter);
+        } finally {
+            metrics.record(PetProviderMetrics.OP_OPEN_FILE, PetProviderMetrics.TARGET_EXPORT,
+                    System.nanoTime() - start, 0);
+        }
+    }
+
+    private AssetFileDescriptor openTypedExport(Uri uri, String mimeTypeFilter) throws FileNotFoundException {
+        String format;
+        if (ClipDescription.compareMimeTypes(exportType(exportFormat(uri)), mimeTypeFilter)) {
+            format = exportFormat(uri);
+        } else if (ClipDescription.compareMimeTypes(PetEntry.EXPORT_CSV_TYPE, mimeTypeFilter)) {
+            format = PetEntry.EXPORT_FORMAT_CSV;
+        } else if (ClipDescription.compareMimeTypes(PetEntry.EXPORT_JSON_TYPE, mimeTypeFilter)) {
+            format = PetEntry.EXPORT_FORMAT_JSON;
+        } else {
+            throw new FileNotFoundException("Cannot export pets as " + mimeTypeFilter);
+        }
+        return new AssetFileDescriptor(openExport(uri, format), 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    @Override
+    public String[] getStreamTypes(@NonNull Uri uri, @NonNull String mimeTypeFilter) {
+        int match = uriMatcher.match(uri);
+        if (match == PET_PHOTO || match == PET_THUMBNAIL) {
+            return ClipDescription.compareMimeTypes(PetEntry.PHOTO_TYPE, mimeTypeFilter)
+                    ? new String[]{PetEntry.PHOTO_TYPE} : null;
+        }
+        if (match != EXPORT) {
+            return null;
+        }
+        List<String> types = new ArrayList<>();
+        for (String type : new String[]{PetEntry.EXPORT_CSV_TYPE, PetEntry.EXPORT_JSON_TYPE}) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Return the read end of a pipe that a background thread fills with all pets. Only one chunk
+     * of rows is in memory at a time, and the reader consumes the rows while later ones are read.
+     */
+    private ParcelFileDescriptor openExport(Uri uri, final String format) throws FileNotFoundException {
+//        Checked before the pipe exists, so the caller gets the error instead of an empty export
+        if (PetEntry.ALL_SHELTERS.equals(shelter(uri))) {
+            throw new FileNotFoundException("An export covers a single shelter, not all of them " + uri);
+        }
+        final SQLiteDatabase database = shard(uri, false).getReadableDatabase();
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot create export pipe: " + e.getMessage());
+        }
+        exportExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
+                try {
+                    new PetExporter(database, format).writeTo(out);
+                } catch (IOException e) {
+                    // Most likely the reader closed its end before the end of the export
+                    Log.w(LOG_TAG, "Export of pets stopped", e);
+                } finally {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Cannot close export pipe", e);
+                    }
+                }
+            }
+        });
+        return pipe[0];
+    }
+
+    /**
+     * Open the photo or thumbnail of a pet for reading, or the photo for writing. Writing returns
+     * the write end of a pipe. Once the writer closes it, a background thread stores the photo
+     * and its thumbnail, then the pet is notified with its new
+     * {@link PetEntry#COLUMN_PET_PHOTO_VERSION}.
+     */
+    private ParcelFileDescriptor openPhoto(int match, Uri uri, String mode) throws FileNotFoundException {
+        final long id = petId(uri);
+        final PetDbHelper shard = shard(uri, false);
+        final String shelter = shelter(uri);
+        if ("r".equals(mode)) {
+            File file = match == PET_PHOTO ? photos.photo(shelter, id) : photos.thumbnail(shelter, id);
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+        if (match != PET_PHOTO || !("w".equals(mode) || "wt".equals(mode))) {
+            throw new FileNotFoundException("Cannot open " + uri + " with mode " + mode);
+        }
+        if (DatabaseUtils.queryNumEntries(shard.getReadableDatabase(), PetEntry.STORAGE_TABLE_NAME,
+                PetEntry._ID + "=?", new String[]{String.valueOf(id)}) == 0) {
+            throw new FileNotFoundException("No pet for " + uri);
+        }
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot create photo pipe: " + e.getMessage());
+        }
+        photoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
+                try {
+                    photos.store(shelter, id, in);
+                    setPhotoVersion(shard, shelter, id, System.currentTimeMillis());
+                } catch (IOException | RuntimeException e) {
+                    Log.w(LOG_TAG, "Cannot store photo of pet " + id, e);
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Cannot close photo pipe", e);
+                    }
+                }
+            }
+        });
+        return pipe[1];
+    }
+
+    /**
+     * Set the photo version of the pet and notify its observers. Return the number of updated rows.
+     */
+    private int setPhotoVersion(PetDbHelper shard, String shelter, long id, long version) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_PHOTO_VERSION, version);
+        int rowsUpdated = updateRows(shard.getWritableDatabase(), PetEntry.STORAGE_TABLE_NAME, values,
+                PetEntry._ID + "=?", new String[]{String.valueOf(id)});
+        if (rowsUpdated != 0) {
+            queryCache.invalidate(shelter);
+            notifyChange(ContentUris.withAppendedId(shelterUri(shelter), id));
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Return the pet id of a photo or thumbnail URI, the segment before the last one.
+     */
+    private static long petId(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return Long.parseLong(segments.get(segments.size() - 2));
+    }
+
+    /**
+     * Return the export format in the URI, or CSV if it has none.
+     */
+    private static String exportFormat(Uri uri) throws FileNotFoundException {
+        String format = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_FORMAT);
+        if (format == null || PetEntry.EXPORT_FORMAT_CSV.equals(format)) {
+            return PetEntry.EXPORT_FORMAT_CSV;
+        }
+        if (PetEntry.EXPORT_FORMAT_JSON.equals(format)) {
+            return PetEntry.EXPORT_FORMAT_JSON;
+        }
+        throw new FileNotFoundException("Unknown export format in " + uri);
+    }
+
+    private static String exportType(String format) {
+        return PetEntry.EXPORT_FORMAT_JSON.equals(format) ? PetEntry.EXPORT_JSON_TYPE : PetEntry.EXPORT_CSV_TYPE;
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -254,9 +1507,29 @@ public class PetProvider extends ContentProvider {
         final int match = uriMatcher.match(uri);
         switch (match) {
             case PETS:
+            case PETS_SEARCH:
                 return PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case CHANGES:
+                return ChangeEntry.CONTENT_LIST_TYPE;
+            case IMPORTS:
+                return ImportEntry.CONTENT_LIST_TYPE;
+            case DRAFTS:
+                return DraftEntry.CONTENT_LIST_TYPE;
+            case DRAFT_ID:
+                return DraftEntry.CONTENT_ITEM_TYPE;
+            case STATS:
+                return StatsEntry.CONTENT_LIST_TYPE;
+            case PET_PHOTO:
+            case PET_THUMBNAIL:
+                return PetEntry.PHOTO_TYPE;
+            case EXPORT:
+                try {
+                    return exportType(exportFormat(uri));
+                } catch (FileNotFoundException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
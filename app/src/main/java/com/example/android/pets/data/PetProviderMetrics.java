@@ -0,0 +1,108 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link PetProviderMetrics} counts calls, rows and latencies of {@link PetProvider} operations.
+ * <p>
+ * Latencies go into histograms with power of two buckets of microseconds, so recording is a few
+ * atomic increments and never allocates. Percentiles are the upper bound of their bucket, which
+ * is within a factor of two of the real value.
+ */
+class PetProviderMetrics {
+
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+    static final int OP_APPLY_BATCH = 5;
+    static final int OP_CALL = 6;
+    static final int OP_OPEN_FILE = 7;
+    private static final String[] OPERATION_NAMES = {"query", "insert", "bulk_insert", "update", "delete",
+            "apply_batch", "call", "open_file"};
+
+    static final int TARGET_PETS = 0;
+    static final int TARGET_PET_ID = 1;
+    static final int TARGET_SEARCH = 2;
+    static final int TARGET_PHOTO = 3;
+    static final int TARGET_EXPORT = 4;
+    static final int TARGET_OTHER = 5;
+    private static final String[] TARGET_NAMES = {"pets", "pet_id", "search", "photo", "export", "other"};
+
+    /**
+     * Bucket i holds latencies below 2^i microseconds, the last one everything above.
+     */
+    private static final int BUCKETS = 32;
+    private static final int SLOTS = OPERATION_NAMES.length * TARGET_NAMES.length;
+
+    private final AtomicLongArray calls = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray rows = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray totalNanos = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray histograms = new AtomicLongArray(SLOTS * BUCKETS);
+
+    /**
+     * Record one call of an operation.
+     *
+     * @param operation    one of the OP_* constants
+     * @param target       one of the TARGET_* constants
+     * @param elapsedNanos time the call took
+     * @param rowCount     number of rows returned or changed
+     */
+    void record(int operation, int target, long elapsedNanos, int rowCount) {
+        int slot = operation * TARGET_NAMES.length + target;
+        calls.incrementAndGet(slot);
+        rows.addAndGet(slot, rowCount);
+        totalNanos.addAndGet(slot, elapsedNanos);
+        histograms.incrementAndGet(slot * BUCKETS + bucket(elapsedNanos / 1000));
+    }
+
+    private static int bucket(long micros) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Snapshot of all operations that were called at least once. The keys are
+     * "operation.target.statistic", see {@link PetContract#METHOD_METRICS}.
+     */
+    Bundle snapshot() {
+        Bundle snapshot = new Bundle();
+        long[] counts = new long[BUCKETS];
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long callCount = calls.get(slot);
+            if (callCount == 0) {
+                continue;
+            }
+            long bucketTotal = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = histograms.get(slot * BUCKETS + i);
+                bucketTotal += counts[i];
+            }
+            String prefix = OPERATION_NAMES[slot / TARGET_NAMES.length] + "."
+                    + TARGET_NAMES[slot % TARGET_NAMES.length] + ".";
+            snapshot.putLong(prefix + PetContract.METRICS_COUNT, callCount);
+            snapshot.putLong(prefix + PetContract.METRICS_ROWS, rows.get(slot));
+            snapshot.putLong(prefix + PetContract.METRICS_MEAN_MICROS, totalNanos.get(slot) / callCount / 1000);
+            snapshot.putLong(prefix + PetContract.METRICS_P50_MICROS, percentile(counts, bucketTotal, 0.50));
+            snapshot.putLong(prefix + PetContract.METRICS_P99_MICROS, percentile(counts, bucketTotal, 0.99));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, in microseconds.
+     */
+    private static long percentile(long[] counts, long total, double percentile) {
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+}
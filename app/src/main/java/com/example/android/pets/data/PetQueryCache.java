@@ -0,0 +1,294 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PetQueryCache} keeps the results of recent queries of {@link PetProvider} in memory.
+ * <p>
+ * Every write bumps the generation counter of its shelter. A result is only served while the
+ * generation of its shelter it was read at is still the current one, so a cached result never
+ * hides a write, and a write to one shelter leaves the results of the others alone. Memory is
+ * bounded, the least recently used results are evicted first.
+ * <p>
+ * Identical queries that arrive while the first of them is still running, as they do when all
+ * observers requery after a change, don't run again. They wait for the running one and get their
+ * own cursor over its rows, see {@link #join(String, long)}.
+ */
+class PetQueryCache {
+
+    /**
+     * Results with more rows than this are not cached, copying them would cost more than it saves.
+     */
+    static final int MAX_ROWS = 500;
+
+    private static final int MAX_SIZE_BYTES = 1024 * 1024;
+
+    /**
+     * How often a caller waiting for a running query checks its cancellation signal.
+     */
+    private static final long CANCEL_POLL_MILLIS = 50;
+
+    private static final class Entry {
+        final long generation;
+        final String[] columnNames;
+        final Object[][] rows;
+        final int sizeBytes;
+
+        Entry(long generation, String[] columnNames, Object[][] rows) {
+            this.generation = generation;
+            this.columnNames = columnNames;
+            this.rows = rows;
+            this.sizeBytes = estimateSize(rows);
+        }
+    }
+
+    private final LruCache<String, Entry> entries = new LruCache<String, Entry>(MAX_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Entry entry) {
+            return key.length() * 2 + entry.sizeBytes;
+        }
+    };
+
+    /**
+     * Write generation of every shelter that was read or written, see {@link #generation(String)}.
+     */
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong maxCoalesced = new AtomicLong();
+
+    /**
+     * A query that is running right now. Its rows are set before it is done, if they can be shared.
+     */
+    static final class Flight {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger followers = new AtomicInteger();
+        String[] columnNames;
+        Object[][] rows;
+    }
+
+    /**
+     * Running queries by key and generation, see {@link #flightKey(String, long)}, guarded by
+     * itself. The same query may run at an old and a new generation at once, each of them lands
+     * on its own.
+     */
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    /**
+     * Build the key of a query. Two queries with the same key return the same rows.
+     */
+    static String key(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                      String sortOrder) {
+        return uri + "\u0000" + Arrays.toString(projection)
+                + "\u0000" + selection
+                + "\u0000" + Arrays.toString(selectionArgs)
+                + "\u0000" + sortOrder;
+    }
+
+    private static String flightKey(String key, long queryGeneration) {
+        return queryGeneration + "\u0000" + key;
+    }
+
+    /**
+     * The current write generation of the shelter. Read it before running a query, and pass it to
+     * {@link #put(String, String, long, Cursor)} with the result. Queries over
+     * {@link PetContract.PetEntry#ALL_SHELTERS} have a generation of their own.
+     */
+    long generation(String shelter) {
+        return counter(shelter).get();
+    }
+
+    /**
+     * Mark every cached result of the shelter as stale. Call it after the data of the shelter
+     * changed. Results over all shelters become stale as well.
+     */
+    void invalidate(String shelter) {
+        counter(shelter).incrementAndGet();
+        counter(PetContract.PetEntry.ALL_SHELTERS).incrementAndGet();
+    }
+
+    private AtomicLong counter(String shelter) {
+        AtomicLong counter = generations.get(shelter);
+        if (counter == null) {
+            AtomicLong added = new AtomicLong();
+            counter = generations.putIfAbsent(shelter, added);
+            if (counter == null) {
+                counter = added;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Return a new cursor over the cached result for the key of a query of the shelter, or null if
+     * there is no up to date one.
+     */
+    Cursor get(String shelter, String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.generation != generation(shelter)) {
+            entries.remove(key);
+            invalidations.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new SharedRowsCursor(entry.columnNames, entry.rows);
+    }
+
+    /**
+     * Join the identical query that is running at the given generation, if there is one, and
+     * return it to wait for with {@link #await(Flight, CancellationSignal)}. Otherwise register
+     * the caller as the one running the query and return null. That caller passes the result to
+     * {@link #put(String, String, long, Cursor)} and has to call {@link #land(String, long)} in any case.
+     * <p>
+     * A query that started before the last write is never joined, its rows may miss the write.
+     */
+    Flight join(String key, long queryGeneration) {
+        String flightKey = flightKey(key, queryGeneration);
+        synchronized (flights) {
+            Flight flight = flights.get(flightKey);
+            if (flight != null) {
+                flight.followers.incrementAndGet();
+                return flight;
+            }
+            flights.put(flightKey, new Flight());
+            return null;
+        }
+    }
+
+    /**
+     * Wait for a joined query. Return a new cursor over its rows, or null if it failed or its
+     * result was too large to share, then the caller runs the query itself.
+     *
+     * @throws android.os.OperationCanceledException if the signal is cancelled while waiting
+     */
+    Cursor await(Flight flight, CancellationSignal cancellationSignal) {
+        try {
+            while (!flight.done.await(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancellationSignal != null) {
+                    cancellationSignal.throwIfCanceled();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (flight.rows == null) {
+            return null;
+        }
+        coalesced.incrementAndGet();
+        return new SharedRowsCursor(flight.columnNames, flight.rows);
+    }
+
+    /**
+     * End the query registered by {@link #join(String, long)} and wake up everybody waiting for it.
+     */
+    void land(String key, long queryGeneration) {
+        Flight flight;
+        synchronized (flights) {
+            flight = flights.remove(flightKey(key, queryGeneration));
+        }
+        if (flight == null) {
+            return;
+        }
+        flight.done.countDown();
+        long followers = flight.followers.get();
+        long max;
+        while ((max = maxCoalesced.get()) < followers && !maxCoalesced.compareAndSet(max, followers)) {
+            // Another query landed at the same time, try again
+        }
+    }
+
+    /**
+     * Cache the result of a query of the shelter that was run at the given generation. Small
+     * results are copied out of the cursor, which is then closed, and a cursor over the copy is
+     * returned. Large results are returned as they are.
+     */
+    Cursor put(String shelter, String key, long queryGeneration, Cursor cursor) {
+        int count;
+        try {
+            // Counting runs the query, which may fail or be cancelled
+            count = cursor.getCount();
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+        if (count > MAX_ROWS) {
+            return cursor;
+        }
+        Entry entry;
+        try {
+            entry = new Entry(queryGeneration, cursor.getColumnNames(), SharedRowsCursor.copyRows(cursor));
+        } finally {
+            cursor.close();
+        }
+//        Callers waiting for this query share the rows even if a write came in meanwhile,
+//        they asked before it
+        synchronized (flights) {
+            Flight flight = flights.get(flightKey(key, queryGeneration));
+            if (flight != null && flight.rows == null) {
+                flight.columnNames = entry.columnNames;
+                flight.rows = entry.rows;
+            }
+        }
+//        Don't let one result push out everything else
+        if (entry.sizeBytes <= MAX_SIZE_BYTES / 4 && queryGeneration == generation(shelter)) {
+            entries.put(key, entry);
+        }
+        return new SharedRowsCursor(entry.columnNames, entry.rows);
+    }
+
+    /**
+     * Hit and miss counters of the cache, see {@link PetContract#METHOD_CACHE_STATS}.
+     */
+    Bundle stats() {
+        Bundle stats = new Bundle();
+        stats.putLong(PetContract.CACHE_STATS_HITS, hits.get());
+        stats.putLong(PetContract.CACHE_STATS_MISSES, misses.get());
+        stats.putLong(PetContract.CACHE_STATS_INVALIDATIONS, invalidations.get());
+        stats.putLong(PetContract.CACHE_STATS_EVICTIONS, entries.evictionCount());
+        stats.putLong(PetContract.CACHE_STATS_SIZE_BYTES, entries.size());
+        stats.putLong(PetContract.CACHE_STATS_COALESCED, coalesced.get());
+        stats.putLong(PetContract.CACHE_STATS_MAX_COALESCED, maxCoalesced.get());
+        return stats;
+    }
+
+    /**
+     * Rough size of the rows in memory, in bytes.
+     */
+    private static int estimateSize(Object[][] rows) {
+        int size = 16;
+        for (Object[] row : rows) {
+            size += 16 + row.length * 4;
+            for (Object value : row) {
+                if (value instanceof String) {
+                    size += 40 + ((String) value).length() * 2;
+                } else if (value instanceof byte[]) {
+                    size += 16 + ((byte[]) value).length;
+                } else if (value != null) {
+                    size += 16;
+                }
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,535 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * {@link PetShards} keeps one database per shelter. The default shelter lives in the original
+ * database file, every other shelter in a file of its own, so each shelter has its own tables and
+ * its own writer lock.
+ * <p>
+ * Queries over all shelters run on every shard in parallel, with at most
+ * {@link #MAX_PARALLEL_QUERIES} at a time, and the results are merged by the sort order while the
+ * merged cursor is read.
+ */
+class PetShards {
+
+    private static final int MAX_PARALLEL_QUERIES = 4;
+
+    /**
+     * Collations of SQLite that merges can follow. Columns don't declare one, so BINARY is the
+     * default.
+     */
+    private static final String COLLATE_BINARY = "BINARY";
+    private static final String COLLATE_NOCASE = "NOCASE";
+    private static final String COLLATE_RTRIM = "RTRIM";
+
+    private static final Pattern SHELTER_PATTERN = Pattern.compile("[a-z0-9_]{1,32}");
+    private static final String SHARD_FILE_PREFIX = "pets_";
+    private static final String SHARD_FILE_SUFFIX = ".db";
+
+    private final Context context;
+    private final PetDbHelper defaultShard;
+    private final Map<String, PetDbHelper> shards = new HashMap<>();
+    private PetDbHelper emptyShard;
+    private final ExecutorService executor = Executors.newFixedThreadPool(MAX_PARALLEL_QUERIES);
+
+    PetShards(Context context, PetDbHelper defaultShard) {
+        this.context = context;
+        this.defaultShard = defaultShard;
+    }
+
+    /**
+     * Return the database of the shelter. Null is the default shelter. A shelter without a database
+     * file only gets one when it is created for a write. Until then reads go to an empty database
+     * in memory, so reading a shelter that was never written leaves no file behind.
+     *
+     * @param create whether to create the database file of the shelter if it doesn't exist yet
+     */
+    PetDbHelper get(String shelter, boolean create) {
+        if (shelter == null || PetEntry.DEFAULT_SHELTER.equals(shelter)) {
+            return defaultShard;
+        }
+        if (PetEntry.ALL_SHELTERS.equals(shelter)) {
+            throw new IllegalArgumentException("Operation requires a single shelter");
+        }
+        if (!SHELTER_PATTERN.matcher(shelter).matches()) {
+            throw new IllegalArgumentException("Invalid shelter " + shelter);
+        }
+        synchronized (shards) {
+            PetDbHelper shard = shards.get(shelter);
+            if (shard == null) {
+                String name = SHARD_FILE_PREFIX + shelter + SHARD_FILE_SUFFIX;
+                if (!create && !context.getDatabasePath(name).exists()) {
+                    if (emptyShard == null) {
+                        emptyShard = new PetDbHelper(context, null, false);
+                    }
+                    return emptyShard;
+                }
+                shard = new PetDbHelper(context, name, true);
+                shards.put(shelter, shard);
+            }
+            return shard;
+        }
+    }
+
+    /**
+     * All shelters that have a database, the default one first and the others sorted by name.
+     */
+    List<String> shelters() {
+        List<String> shelters = new ArrayList<>();
+        for (String name : context.databaseList()) {
+            if (name.startsWith(SHARD_FILE_PREFIX) && name.endsWith(SHARD_FILE_SUFFIX)) {
+                String shelter = name.substring(SHARD_FILE_PREFIX.length(),
+                        name.length() - SHARD_FILE_SUFFIX.length());
+                if (SHELTER_PATTERN.matcher(shelter).matches()) {
+                    shelters.add(shelter);
+                }
+            }
+        }
+        Collections.sort(shelters);
+        shelters.add(0, PetEntry.DEFAULT_SHELTER);
+        return shelters;
+    }
+
+    /**
+     * Run the query on every shelter and merge the rows in the given sort order, which has to be
+     * the one of the query and may only name columns of the projection, each optionally followed
+     * by COLLATE BINARY, NOCASE or RTRIM and by ASC or DESC. Without a sort order the shelters
+     * follow each other. Every row gets the {@link PetEntry#COLUMN_SHELTER} it came from.
+     * Cancelling the signal stops the queries of all shards. A signal only holds one listener, so
+     * every shard query gets a signal of its own and the signal of the caller cancels all of them.
+     * If the query fails, the cursors of all shards are closed, also of those finishing later.
+     */
+    Cursor queryAll(final String sql, final String[] selectionArgs, String sortOrder,
+                    final CancellationSignal cancellationSignal) {
+        List<SortKey> sortKeys = SortKey.parse(sortOrder);
+        List<String> shelters = shelters();
+        final List<CancellationSignal> shardSignals = new ArrayList<>(shelters.size());
+        for (int i = 0; i < shelters.size(); i++) {
+            shardSignals.add(new CancellationSignal());
+        }
+        if (cancellationSignal != null) {
+//            Called right away if the signal is cancelled already
+            cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    for (CancellationSignal shardSignal : shardSignals) {
+                        shardSignal.cancel();
+                    }
+                }
+            });
+        }
+        try {
+            return queryShards(shelters, sql, selectionArgs, sortKeys, shardSignals);
+        } finally {
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
+            }
+        }
+    }
+
+    private Cursor queryShards(List<String> shelters, final String sql, final String[] selectionArgs,
+                               List<SortKey> sortKeys, List<CancellationSignal> shardSignals) {
+        final OpenCursors open = new OpenCursors();
+        List<Future<Cursor>> futures = new ArrayList<>(shelters.size());
+        for (int i = 0; i < shelters.size(); i++) {
+            final String shelter = shelters.get(i);
+            final CancellationSignal shardSignal = shardSignals.get(i);
+            futures.add(executor.submit(new Callable<Cursor>() {
+                @Override
+                public Cursor call() {
+                    Cursor cursor = queryShard(shelter, sql, selectionArgs, shardSignal);
+//                    Run the query here, and not later on the thread doing the merge
+                    try {
+                        cursor.getCount();
+                    } catch (RuntimeException e) {
+                        cursor.close();
+                        throw e;
+                    }
+                    return open.add(cursor);
+                }
+            }));
+        }
+
+        List<Cursor> cursors = new ArrayList<>(futures.size());
+        RuntimeException failure = null;
+        for (Future<Cursor> future : futures) {
+            try {
+                cursors.add(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+//                Stop waiting, the shards still running close their cursors when they finish
+                for (CancellationSignal shardSignal : shardSignals) {
+                    shardSignal.cancel();
+                }
+                failure = new IllegalStateException("Interrupted while querying shelters");
+                break;
+            }
+        }
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            return new MergedCursor(shelters, cursors, sortKeys);
+        } catch (RuntimeException e) {
+            open.closeAll();
+            throw e;
+        }
+    }
+
+    /**
+     * Run the query on the database of one shelter.
+     */
+    Cursor queryShard(String shelter, String sql, String[] selectionArgs, CancellationSignal cancellationSignal) {
+        return get(shelter, false).getReadableDatabase().rawQuery(sql, selectionArgs, cancellationSignal);
+    }
+
+    /**
+     * Cursors of the shards of one query. Once the query failed they are closed, including the
+     * ones of shards that only finish afterwards.
+     */
+    private static final class OpenCursors {
+        private final List<Cursor> cursors = new ArrayList<>();
+        private boolean closed;
+
+        /**
+         * Return the cursor, or close it and return null if the query failed already.
+         */
+        synchronized Cursor add(Cursor cursor) {
+            if (closed) {
+                cursor.close();
+                return null;
+            }
+            cursors.add(cursor);
+            return cursor;
+        }
+
+        synchronized void closeAll() {
+            closed = true;
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+            cursors.clear();
+        }
+    }
+
+    /**
+     * Merges cursors that are each sorted by the keys into one sorted cursor, one row at a time as
+     * it is moved. Only the windows of the shard cursors are in memory, not all rows. Moving
+     * backwards starts the merge over. Equal rows keep the order of the shelters. Closing it
+     * closes the shard cursors.
+     */
+    private static final class MergedCursor extends AbstractCursor {
+        private final List<String> shelters;
+        private final List<Cursor> cursors;
+        private final List<SortKey> sortKeys;
+        private final String[] columnNames;
+        private final int shelterColumn;
+        private final int[][] keyColumns;
+        private final int count;
+
+        /**
+         * Shard cursor of the current row, -1 before the first row.
+         */
+        private int current = -1;
+        /**
+         * Position the shard cursors were merged up to.
+         */
+        private int mergedPosition = -1;
+
+        MergedCursor(List<String> shelters, List<Cursor> cursors, List<SortKey> sortKeys) {
+            this.shelters = shelters;
+            this.cursors = cursors;
+            this.sortKeys = sortKeys;
+            String[] columns = cursors.get(0).getColumnNames();
+            columnNames = new String[columns.length + 1];
+            System.arraycopy(columns, 0, columnNames, 0, columns.length);
+            shelterColumn = columns.length;
+            columnNames[shelterColumn] = PetEntry.COLUMN_SHELTER;
+
+            int rows = 0;
+            keyColumns = new int[cursors.size()][];
+            for (int i = 0; i < cursors.size(); i++) {
+                Cursor cursor = cursors.get(i);
+                rows += cursor.getCount();
+                keyColumns[i] = new int[sortKeys.size()];
+                for (int k = 0; k < sortKeys.size(); k++) {
+                    keyColumns[i][k] = cursor.getColumnIndex(sortKeys.get(k).column);
+                    if (keyColumns[i][k] < 0) {
+                        throw new IllegalArgumentException("Sort column " + sortKeys.get(k).column
+                                + " has to be part of the projection");
+                    }
+                }
+            }
+            count = rows;
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            if (newPosition < mergedPosition || mergedPosition < 0) {
+                for (Cursor cursor : cursors) {
+                    cursor.moveToFirst();
+                }
+                current = -1;
+                mergedPosition = -1;
+            }
+            while (mergedPosition < newPosition) {
+                if (current >= 0) {
+                    cursors.get(current).moveToNext();
+                }
+                current = next();
+                mergedPosition++;
+            }
+            return current >= 0;
+        }
+
+        /**
+         * Return the shard cursor with the smallest row, or -1 if all are after their last row.
+         */
+        private int next() {
+            int next = -1;
+            for (int i = 0; i < cursors.size(); i++) {
+                if (cursors.get(i).isAfterLast()) {
+                    continue;
+                }
+                if (next < 0 || compareRows(cursors.get(i), keyColumns[i], cursors.get(next),
+                        keyColumns[next], sortKeys) < 0) {
+                    next = i;
+                }
+            }
+            return next;
+        }
+
+        @Override
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return columnNames;
+        }
+
+        @Override
+        public int getType(int column) {
+            return column == shelterColumn ? FIELD_TYPE_STRING : cursors.get(current).getType(column);
+        }
+
+        @Override
+        public String getString(int column) {
+            return column == shelterColumn ? shelters.get(current) : cursors.get(current).getString(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return cursors.get(current).getShort(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return cursors.get(current).getInt(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return cursors.get(current).getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return cursors.get(current).getFloat(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return cursors.get(current).getDouble(column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return cursors.get(current).getBlob(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return column != shelterColumn && cursors.get(current).isNull(column);
+        }
+
+        @Override
+        public void deactivate() {
+            super.deactivate();
+            for (Cursor cursor : cursors) {
+                cursor.deactivate();
+            }
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static int compareRows(Cursor a, int[] aColumns, Cursor b, int[] bColumns, List<SortKey> sortKeys) {
+        for (int k = 0; k < sortKeys.size(); k++) {
+            int result = compareValues(a, aColumns[k], b, bColumns[k], sortKeys.get(k).collation);
+            if (result != 0) {
+                return sortKeys.get(k).descending ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compare two values the way SQLite does: NULL first, then numbers, then text in the
+     * collation, then blobs.
+     */
+    private static int compareValues(Cursor a, int aColumn, Cursor b, int bColumn, String collation) {
+        int aRank = typeRank(a.getType(aColumn));
+        int bRank = typeRank(b.getType(bColumn));
+        if (aRank != bRank) {
+            return aRank < bRank ? -1 : 1;
+        }
+        switch (a.getType(aColumn)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return 0;
+            case Cursor.FIELD_TYPE_INTEGER:
+            case Cursor.FIELD_TYPE_FLOAT:
+                if (a.getType(aColumn) == Cursor.FIELD_TYPE_INTEGER && b.getType(bColumn) == Cursor.FIELD_TYPE_INTEGER) {
+                    long x = a.getLong(aColumn);
+                    long y = b.getLong(bColumn);
+                    return x < y ? -1 : (x == y ? 0 : 1);
+                }
+                return Double.compare(a.getDouble(aColumn), b.getDouble(bColumn));
+            case Cursor.FIELD_TYPE_STRING:
+                return compareText(a.getString(aColumn), b.getString(bColumn), collation);
+            default:
+                byte[] x = a.getBlob(aColumn);
+                byte[] y = b.getBlob(bColumn);
+                for (int i = 0; i < Math.min(x.length, y.length); i++) {
+                    if (x[i] != y[i]) {
+                        return (x[i] & 0xff) < (y[i] & 0xff) ? -1 : 1;
+                    }
+                }
+                return x.length - y.length;
+        }
+    }
+
+    /**
+     * Compare text like the SQLite collation. BINARY compares the UTF-8 bytes, which is the order
+     * of the code points, not of the UTF-16 chars {@link String#compareTo} compares. NOCASE only
+     * folds ASCII letters, RTRIM ignores trailing spaces.
+     */
+    private static int compareText(String x, String y, String collation) {
+        int xLength = x.length();
+        int yLength = y.length();
+        if (COLLATE_RTRIM.equals(collation)) {
+            while (xLength > 0 && x.charAt(xLength - 1) == ' ') {
+                xLength--;
+            }
+            while (yLength > 0 && y.charAt(yLength - 1) == ' ') {
+                yLength--;
+            }
+        }
+        boolean noCase = COLLATE_NOCASE.equals(collation);
+        int i = 0;
+        int j = 0;
+        while (i < xLength && j < yLength) {
+            int xPoint = x.codePointAt(i);
+            int yPoint = y.codePointAt(j);
+            if (noCase) {
+                xPoint = xPoint >= 'A' && xPoint <= 'Z' ? xPoint + ('a' - 'A') : xPoint;
+                yPoint = yPoint >= 'A' && yPoint <= 'Z' ? yPoint + ('a' - 'A') : yPoint;
+            }
+            if (xPoint != yPoint) {
+                return xPoint < yPoint ? -1 : 1;
+            }
+            i += Character.charCount(xPoint);
+            j += Character.charCount(yPoint);
+        }
+        return (i < xLength ? 1 : 0) - (j < yLength ? 1 : 0);
+    }
+
+    private static int typeRank(int type) {
+        switch (type) {
+            case Cursor.FIELD_TYPE_NULL:
+                return 0;
+            case Cursor.FIELD_TYPE_INTEGER:
+            case Cursor.FIELD_TYPE_FLOAT:
+                return 1;
+            case Cursor.FIELD_TYPE_STRING:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    /**
+     * One term of an ORDER BY clause.
+     */
+    private static final class SortKey {
+        final String column;
+        final String collation;
+        final boolean descending;
+
+        SortKey(String column, String collation, boolean descending) {
+            this.column = column;
+            this.collation = collation;
+            this.descending = descending;
+        }
+
+        /**
+         * Parse terms of the form "column [COLLATE BINARY|NOCASE|RTRIM] [ASC|DESC]".
+         */
+        static List<SortKey> parse(String sortOrder) {
+            List<SortKey> keys = new ArrayList<>();
+            if (sortOrder == null || sortOrder.trim().isEmpty()) {
+                return keys;
+            }
+            for (String term : sortOrder.split(",")) {
+                List<String> words = new ArrayList<>(Arrays.asList(term.trim().toUpperCase(Locale.ROOT).split("\\s+")));
+                String column = term.trim().split("\\s+")[0];
+                words.remove(0);
+                String collation = COLLATE_BINARY;
+                if (words.size() >= 2 && words.get(0).equals("COLLATE")) {
+                    collation = words.get(1);
+                    words = words.subList(2, words.size());
+                }
+                String direction = words.isEmpty() ? "ASC" : words.get(0);
+                if (words.size() > 1 || !(direction.equals("ASC") || direction.equals("DESC"))
+                        || !(collation.equals(COLLATE_BINARY) || collation.equals(COLLATE_NOCASE)
+                        || collation.equals(COLLATE_RTRIM))) {
+                    throw new IllegalArgumentException("Cannot merge shelters in order " + sortOrder);
+                }
+                keys.add(new SortKey(column, collation, direction.equals("DESC")));
+            }
+            return keys;
+        }
+    }
+}
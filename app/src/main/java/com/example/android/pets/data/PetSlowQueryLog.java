@@ -0,0 +1,93 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PetSlowQueryLog} keeps the most recent {@link PetProvider} operations that took longer
+ * than a threshold, together with the query plan SQLite chose for them. Old entries are
+ * overwritten, so the log never grows beyond {@link #CAPACITY} entries.
+ */
+class PetSlowQueryLog {
+
+    static final int CAPACITY = 32;
+    private static final long DEFAULT_THRESHOLD_MILLIS = 50;
+
+    private static final class Entry {
+        final long timeMillis;
+        final String operation;
+        final String sql;
+        final int argumentCount;
+        final long elapsedNanos;
+        final int rows;
+        final String plan;
+
+        Entry(String operation, String sql, int argumentCount, long elapsedNanos, int rows, String plan) {
+            this.timeMillis = System.currentTimeMillis();
+            this.operation = operation;
+            this.sql = sql;
+            this.argumentCount = argumentCount;
+            this.elapsedNanos = elapsedNanos;
+            this.rows = rows;
+            this.plan = plan;
+        }
+    }
+
+    private final Entry[] entries = new Entry[CAPACITY];
+    private int next;
+    private volatile long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_THRESHOLD_MILLIS);
+
+    /**
+     * Operations taking at least this long are logged. A negative threshold turns logging off.
+     */
+    void setThresholdMillis(long thresholdMillis) {
+        thresholdNanos = thresholdMillis < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    boolean isSlow(long elapsedNanos) {
+        return elapsedNanos >= thresholdNanos;
+    }
+
+    /**
+     * Add an operation to the log, replacing the oldest entry when the log is full.
+     *
+     * @param operation     name of the provider operation
+     * @param sql           shape of the statement, with placeholders instead of arguments
+     * @param argumentCount number of selection arguments
+     * @param elapsedNanos  time the operation took
+     * @param rows          number of rows returned or changed
+     * @param plan          output of EXPLAIN QUERY PLAN for the statement
+     */
+    synchronized void record(String operation, String sql, int argumentCount, long elapsedNanos, int rows,
+                             String plan) {
+        entries[next] = new Entry(operation, sql, argumentCount, elapsedNanos, rows, plan);
+        next = (next + 1) % CAPACITY;
+    }
+
+    /**
+     * All logged operations, oldest first, see {@link PetContract#METHOD_SLOW_LOG}.
+     */
+    synchronized Bundle snapshot() {
+        ArrayList<Bundle> list = new ArrayList<>();
+        for (int i = 0; i < CAPACITY; i++) {
+            Entry entry = entries[(next + i) % CAPACITY];
+            if (entry == null) {
+                continue;
+            }
+            Bundle bundle = new Bundle();
+            bundle.putLong(PetContract.SLOW_LOG_TIME_MILLIS, entry.timeMillis);
+            bundle.putString(PetContract.SLOW_LOG_OPERATION, entry.operation);
+            bundle.putString(PetContract.SLOW_LOG_SQL, entry.sql);
+            bundle.putInt(PetContract.SLOW_LOG_ARGUMENT_COUNT, entry.argumentCount);
+            bundle.putLong(PetContract.SLOW_LOG_ELAPSED_MICROS, entry.elapsedNanos / 1000);
+            bundle.putInt(PetContract.SLOW_LOG_ROWS, entry.rows);
+            bundle.putString(PetContract.SLOW_LOG_PLAN, entry.plan);
+            list.add(bundle);
+        }
+        Bundle snapshot = new Bundle();
+        snapshot.putParcelableArrayList(PetContract.SLOW_LOG_ENTRIES, list);
+        return snapshot;
+    }
+}
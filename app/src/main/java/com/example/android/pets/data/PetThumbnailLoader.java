@@ -0,0 +1,342 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * {@link PetThumbnailLoader} shows the photo thumbnails of pets in image views, typically the rows
+ * of a list.
+ * <p>
+ * Thumbnails are decoded on background threads and downsampled to the size of the view. Decoded
+ * thumbnails stay in a memory cache bounded to an eighth of the heap, so rows scrolling back in
+ * show theirs right away. Bitmaps that left the cache and are no longer shown are decoded into
+ * again instead of allocating new ones. Loading a view again, or cancelling it when its row is
+ * recycled, stops the load that was running for it.
+ * <p>
+ * The disk cache is the thumbnails the provider makes when a photo is written, so full photos are
+ * never decoded for a list.
+ * <p>
+ * There is one loader per process, see {@link #getInstance(Context)}. Its cache outlives the
+ * screens, they cancel their views when they go away. All methods have to be called on the main
+ * thread.
+ */
+public class PetThumbnailLoader {
+
+    private static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    private static final int DECODE_THREADS = 2;
+    private static final int MAX_REUSABLE_BITMAPS = 8;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static PetThumbnailLoader instance;
+
+    private final ContentResolver resolver;
+    private final ExecutorService executor = Executors.newFixedThreadPool(DECODE_THREADS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Bitmaps that are in the memory cache.
+     */
+    private final Set<Bitmap> cachedBitmaps = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+    private final LruCache<String, Bitmap> cache;
+
+    /**
+     * The bitmap each view shows, and the load running for it.
+     */
+    private final Map<ImageView, Bitmap> shownBitmaps = new WeakHashMap<>();
+    private final Map<ImageView, Load> loads = new WeakHashMap<>();
+
+    /**
+     * Bitmaps nobody uses any more, decoders take them as inBitmap. Guarded by itself, it is the
+     * only state the decode threads touch.
+     */
+    final List<Bitmap> reusableBitmaps = new ArrayList<>();
+
+    /**
+     * Use {@link #getInstance(Context)}, only tests need loaders of their own.
+     */
+    PetThumbnailLoader(Context context) {
+        this.resolver = context.getApplicationContext().getContentResolver();
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        this.cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldBitmap, Bitmap newBitmap) {
+                if (oldBitmap != newBitmap) {
+                    cachedBitmaps.remove(oldBitmap);
+                    releaseIfUnused(oldBitmap);
+                }
+            }
+        };
+    }
+
+    public static synchronized PetThumbnailLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new PetThumbnailLoader(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Show the thumbnail of the pet in the view, or nothing if the pet has no photo. Whatever the
+     * view showed or was loading before is dropped.
+     */
+    public void load(long petId, long photoVersion, ImageView view) {
+        cancel(view);
+        if (photoVersion == 0) {
+            return;
+        }
+        int size = targetSize(view);
+        String key = petId + "/" + photoVersion + "/" + size;
+        Bitmap bitmap = cache.get(key);
+        if (bitmap != null) {
+            show(view, bitmap);
+            return;
+        }
+        Load load = new Load(view, key, PetEntry.buildThumbnailUri(petId), size);
+        loads.put(view, load);
+        load.future = executor.submit(load);
+    }
+
+    /**
+     * Clear the view and stop loading its thumbnail, for example when its row is recycled.
+     */
+    public void cancel(ImageView view) {
+        Load load = loads.remove(view);
+        if (load != null) {
+            load.cancel();
+        }
+        Bitmap shown = shownBitmaps.remove(view);
+        view.setImageDrawable(null);
+        if (shown != null) {
+            releaseIfUnused(shown);
+        }
+    }
+
+    private void show(ImageView view, Bitmap bitmap) {
+        view.setImageBitmap(bitmap);
+        shownBitmaps.put(view, bitmap);
+    }
+
+    /**
+     * Offer the bitmap for reuse if it is neither cached nor shown any more.
+     */
+    private void releaseIfUnused(Bitmap bitmap) {
+        if (!bitmap.isMutable() || cachedBitmaps.contains(bitmap) || shownBitmaps.containsValue(bitmap)) {
+            return;
+        }
+        addReusable(bitmap);
+    }
+
+    /**
+     * Add the bitmap to the ones decoders may reuse, unless there are enough of them already.
+     */
+    private void addReusable(Bitmap bitmap) {
+        synchronized (reusableBitmaps) {
+            if (reusableBitmaps.size() < MAX_REUSABLE_BITMAPS) {
+                reusableBitmaps.add(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Size in pixels the thumbnail is decoded for, the longest side of the view.
+     */
+    private static int targetSize(ImageView view) {
+        ViewGroup.LayoutParams params = view.getLayoutParams();
+        int size = params == null ? 0 : Math.max(params.width, params.height);
+        if (size <= 0) {
+            size = Math.max(view.getWidth(), view.getHeight());
+        }
+        return size > 0 ? Math.min(size, PetEntry.THUMBNAIL_MAX_SIZE) : PetEntry.THUMBNAIL_MAX_SIZE;
+    }
+
+    /**
+     * Called on the main thread with the result of a load, null if it failed or was cancelled.
+     */
+    private void finish(Load load, Bitmap bitmap) {
+        ImageView view = load.viewReference.get();
+        boolean current = view != null && loads.get(view) == load;
+        if (current) {
+            loads.remove(view);
+        }
+        if (bitmap == null) {
+            return;
+        }
+//        Shown first, so the cache can't pass it on for reuse if it evicts it right away.
+//        Even a cancelled load is worth caching, its row may come back.
+        if (current) {
+            show(view, bitmap);
+        }
+        cachedBitmaps.add(bitmap);
+        cache.put(load.key, bitmap);
+    }
+
+    /**
+     * Decode the thumbnail with the largest sample size that still covers the target size, into a
+     * reusable bitmap if there is one that fits.
+     */
+    private Bitmap decode(Load load) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        decodeStream(load.uri, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Not an image: " + load.uri);
+        }
+
+        BitmapFactory.Options options = load.options;
+        int sampleSize = 1;
+//        The view crops the thumbnail, so its shorter side has to cover the target size
+        while (Math.min(bounds.outWidth, bounds.outHeight) / (sampleSize * 2) >= load.size) {
+            sampleSize *= 2;
+        }
+        if (load.cancelled) {
+            return null;
+        }
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        Bitmap reusable = takeReusable((bounds.outWidth + sampleSize - 1) / sampleSize,
+                (bounds.outHeight + sampleSize - 1) / sampleSize, sampleSize);
+        options.inBitmap = reusable;
+        Bitmap bitmap = null;
+        try {
+            try {
+                bitmap = decodeStream(load.uri, options);
+            } catch (IllegalArgumentException e) {
+                // The decoder refused the reused bitmap, decode into a new one
+                options.inBitmap = null;
+                bitmap = decodeStream(load.uri, options);
+            }
+            return bitmap;
+        } finally {
+//            A cancelled or failed decode returns null, the bitmap it was to reuse is still free
+            if (reusable != null && bitmap != reusable) {
+                addReusable(reusable);
+            }
+        }
+    }
+
+    Bitmap decodeStream(Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    private Bitmap takeReusable(int width, int height, int sampleSize) {
+        synchronized (reusableBitmaps) {
+            Iterator<Bitmap> iterator = reusableBitmaps.iterator();
+            while (iterator.hasNext()) {
+                Bitmap candidate = iterator.next();
+                if (candidate.isRecycled()) {
+                    iterator.remove();
+                } else if (canReuse(candidate, width, height, sampleSize)) {
+                    iterator.remove();
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Before KitKat the decoder only reuses bitmaps of exactly the same size, and only without
+     * sampling. Later it reuses any bitmap that is large enough.
+     */
+    private static boolean canReuse(Bitmap candidate, int width, int height, int sampleSize) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return candidate.getAllocationByteCount() >= width * height * BYTES_PER_PIXEL;
+        }
+        return candidate.getWidth() == width && candidate.getHeight() == height && sampleSize == 1;
+    }
+
+    /**
+     * Loads the thumbnail for one view.
+     */
+    private final class Load implements Runnable {
+        final WeakReference<ImageView> viewReference;
+        final String key;
+        final Uri uri;
+        final int size;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        volatile boolean cancelled;
+        Future<?> future;
+
+        Load(ImageView view, String key, Uri uri, int size) {
+            this.viewReference = new WeakReference<>(view);
+            this.key = key;
+            this.uri = uri;
+            this.size = size;
+        }
+
+        /**
+         * Drop the load if it hasn't started, or stop the decoder if it is running.
+         */
+        void cancel() {
+            cancelled = true;
+            options.requestCancelDecode();
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            if (cancelled) {
+                return;
+            }
+            Bitmap bitmap;
+            try {
+                bitmap = decode(this);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Cannot load thumbnail " + uri, e);
+                bitmap = null;
+            }
+            final Bitmap result = bitmap;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    finish(Load.this, result);
+                }
+            });
+        }
+    }
+}
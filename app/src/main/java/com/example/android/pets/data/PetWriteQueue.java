@@ -0,0 +1,172 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link PetWriteQueue} runs writes to the pets provider on a background thread, so the UI
+ * thread never waits for the database.
+ * <p>
+ * Writes run one at a time in the order they were queued, so writes to the same pet never
+ * overtake each other. An update of a pet whose previous update is still waiting is merged into
+ * it and both run as one. Results are delivered on the main thread.
+ */
+public class PetWriteQueue {
+
+    private static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+
+    /**
+     * Receives the result of a write on the main thread.
+     */
+    public interface Callback {
+        /**
+         * @param success whether the pet was inserted, or at least one row was updated or deleted
+         * @param uri     URI of the new pet for an insert, otherwise the URI that was written
+         */
+        void onWriteFinished(boolean success, Uri uri);
+    }
+
+    private static PetWriteQueue instance;
+
+    private final ContentResolver resolver;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Updates that haven't started yet, by URI. Later updates of the same URI join them.
+     */
+    private final Map<Uri, PendingUpdate> pendingUpdates = new HashMap<>();
+
+    private static final class PendingUpdate {
+        final ContentValues values;
+        final List<Callback> callbacks = new ArrayList<>();
+
+        PendingUpdate(ContentValues values) {
+            this.values = values;
+        }
+    }
+
+    /**
+     * Use {@link #getInstance(Context)}, only tests need queues of their own.
+     */
+    PetWriteQueue(Context context) {
+        resolver = context.getApplicationContext().getContentResolver();
+    }
+
+    public static synchronized PetWriteQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new PetWriteQueue(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Queue an insert of a new pet.
+     *
+     * @param callback receives the result, or null
+     */
+    public void insert(final Uri uri, ContentValues values, final Callback callback) {
+        final ContentValues copy = new ContentValues(values);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Uri newUri = null;
+                try {
+                    newUri = resolver.insert(uri, copy);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Cannot insert into " + uri, e);
+                }
+                deliver(callback, newUri != null, newUri);
+            }
+        });
+    }
+
+    /**
+     * Queue an update of the pets at the URI. If an update of the same URI is still waiting, the
+     * values are merged into it, later values winning.
+     *
+     * @param callback receives the result, or null
+     */
+    public void update(final Uri uri, ContentValues values, Callback callback) {
+        final PendingUpdate update;
+        synchronized (pendingUpdates) {
+            PendingUpdate pending = pendingUpdates.get(uri);
+            if (pending != null) {
+                pending.values.putAll(values);
+                pending.callbacks.add(callback);
+                return;
+            }
+            update = new PendingUpdate(new ContentValues(values));
+            update.callbacks.add(callback);
+            pendingUpdates.put(uri, update);
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+//                Stop merging before the update runs, later updates queue on their own
+                synchronized (pendingUpdates) {
+                    if (pendingUpdates.get(uri) == update) {
+                        pendingUpdates.remove(uri);
+                    }
+                }
+                int rows = 0;
+                try {
+                    rows = resolver.update(uri, update.values, null, null);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Cannot update " + uri, e);
+                }
+                for (Callback callback : update.callbacks) {
+                    deliver(callback, rows > 0, uri);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue a delete of the pets at the URI.
+     *
+     * @param callback receives the result, or null
+     */
+    public void delete(final Uri uri, final Callback callback) {
+//        An update queued later must not join one that runs before the delete
+        synchronized (pendingUpdates) {
+            pendingUpdates.remove(uri);
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rows = 0;
+                try {
+                    rows = resolver.delete(uri, null, null);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Cannot delete " + uri, e);
+                }
+                deliver(callback, rows > 0, uri);
+            }
+        });
+    }
+
+    private void deliver(final Callback callback, final boolean success, final Uri uri) {
+        if (callback == null) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onWriteFinished(success, uri);
+            }
+        });
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * {@link SharedRowsCursor} is a read-only cursor over rows that were copied out of the database
+ * earlier. The rows are never modified, so any number of cursors can share them without copying.
+ */
+class SharedRowsCursor extends AbstractCursor {
+
+    private final String[] columnNames;
+    private final Object[][] rows;
+
+    SharedRowsCursor(String[] columnNames, Object[][] rows) {
+        this.columnNames = columnNames;
+        this.rows = rows;
+    }
+
+    /**
+     * Copy all rows of the cursor. Integers are stored as {@link Long}, floats as {@link Double}.
+     * The cursor is left after the last row.
+     */
+    static Object[][] copyRows(Cursor cursor) {
+        Object[][] rows = new Object[cursor.getCount()][];
+        int columnCount = cursor.getColumnCount();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                switch (cursor.getType(column)) {
+                    case FIELD_TYPE_INTEGER:
+                        row[column] = cursor.getLong(column);
+                        break;
+                    case FIELD_TYPE_FLOAT:
+                        row[column] = cursor.getDouble(column);
+                        break;
+                    case FIELD_TYPE_STRING:
+                        row[column] = cursor.getString(column);
+                        break;
+                    case FIELD_TYPE_BLOB:
+                        row[column] = cursor.getBlob(column);
+                        break;
+                    default:
+                        row[column] = null;
+                }
+            }
+            rows[cursor.getPosition()] = row;
+        }
+        return rows;
+    }
+
+    private Object get(int column) {
+        if (column < 0 || column >= columnNames.length) {
+            throw new IndexOutOfBoundsException("Requested column: " + column
+                    + ", # of columns: " + columnNames.length);
+        }
+        if (mPos < 0 || mPos >= rows.length) {
+            throw new IndexOutOfBoundsException("Cursor is not on a row");
+        }
+        return rows[mPos][column];
+    }
+
+    @Override
+    public int getCount() {
+        return rows.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = get(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = get(column);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return get(column) == null;
+    }
+}
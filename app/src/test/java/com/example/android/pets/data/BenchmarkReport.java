@@ -0,0 +1,117 @@
+package com.example.android.pets.data;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BenchmarkReport} collects the results of one benchmark class and writes them as JSON to
+ * {@code <benchmark.output>/<class>.json}, one file per class so builds can be compared.
+ * <p>
+ * The benchmarks only run with {@code ./gradlew testDebugUnitTest -Pbenchmark}. Table sizes and
+ * the number of timed operations come from system properties, see {@link #rowCounts()}.
+ */
+final class BenchmarkReport {
+
+    private static final String PROPERTY_OUTPUT = "benchmark.output";
+    private static final String PROPERTY_ROWS = "benchmark.rows";
+    private static final String PROPERTY_OPERATIONS = "benchmark.operations";
+    private static final String PROPERTY_BATCH_ROWS = "benchmark.batchRows";
+
+    private final String name;
+    private final JSONArray results = new JSONArray();
+
+    BenchmarkReport(Class<?> benchmarkClass) {
+        this.name = benchmarkClass.getSimpleName();
+    }
+
+    /**
+     * Table sizes to measure at, from the comma separated benchmark.rows property. 1k, 100k and
+     * 1M rows by default.
+     */
+    static int[] rowCounts() {
+        String[] values = System.getProperty(PROPERTY_ROWS, "1000,100000,1000000").split(",");
+        int[] rowCounts = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            rowCounts[i] = Integer.parseInt(values[i].trim());
+        }
+        Arrays.sort(rowCounts);
+        return rowCounts;
+    }
+
+    /**
+     * Number of timed operations of each kind at each table size.
+     */
+    static int operations() {
+        return Integer.getInteger(PROPERTY_OPERATIONS, 1000);
+    }
+
+    /**
+     * Number of rows written when comparing ways of writing many pets.
+     */
+    static int batchRows() {
+        return Integer.getInteger(PROPERTY_BATCH_ROWS, 10000);
+    }
+
+    /**
+     * Add the result of a benchmark. The latencies hold the time of each operation, the total
+     * time includes the work between them. Return the result, to add more values to it.
+     */
+    JSONObject add(String benchmark, int rows, long[] latenciesNanos, long totalNanos) throws JSONException {
+        long[] sorted = latenciesNanos.clone();
+        Arrays.sort(sorted);
+        JSONObject result = new JSONObject();
+        result.put("benchmark", benchmark);
+        result.put("rows", rows);
+        result.put("operations", sorted.length);
+        result.put("total_ms", TimeUnit.NANOSECONDS.toMillis(totalNanos));
+        result.put("ops_per_second", sorted.length * (double) TimeUnit.SECONDS.toNanos(1) / totalNanos);
+        result.put("p50_us", percentileMicros(sorted, 50));
+        result.put("p90_us", percentileMicros(sorted, 90));
+        result.put("p99_us", percentileMicros(sorted, 99));
+        result.put("max_us", percentileMicros(sorted, 100));
+        results.put(result);
+        System.out.println(name + " " + result);
+        return result;
+    }
+
+    /**
+     * Write all results to the output directory, build/benchmarks when not set.
+     */
+    void write() throws IOException, JSONException {
+        File directory = new File(System.getProperty(PROPERTY_OUTPUT, "build/benchmarks"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        JSONObject report = new JSONObject();
+        report.put("class", name);
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("java_version", System.getProperty("java.version"));
+        report.put("max_heap_bytes", Runtime.getRuntime().maxMemory());
+        report.put("results", results);
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(new File(directory, name + ".json")), "UTF-8");
+        try {
+            out.write(report.toString(2));
+            out.write('\n');
+        } finally {
+            out.close();
+        }
+    }
+
+    private static long percentileMicros(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(index, 0)]);
+    }
+}
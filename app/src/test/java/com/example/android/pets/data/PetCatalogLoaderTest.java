@@ -0,0 +1,120 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.Loader;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.pets.data.PetProviderBulkInsertTest.pet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetCatalogLoaderTest {
+
+    private static final int WINDOW_SIZE = 5;
+
+    private ContentResolver resolver;
+    private final List<PetCatalogLoader.Window> windows = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void newPetsAtTheEndKeepTheWindowSize() {
+        insertPets(3);
+        PetCatalogLoader loader = start(new PetCatalogLoader(RuntimeEnvironment.application,
+                PetEntry.buildPageUri(WINDOW_SIZE), false));
+        PetCatalogLoader.Window first = lastWindow();
+        assertEquals(3, first.pets.size());
+        assertTrue(first.atEnd);
+
+        insertPets(4);
+        reload(loader);
+
+        PetCatalogLoader.Window updated = lastWindow();
+        assertEquals(WINDOW_SIZE, updated.pets.size());
+        assertEquals(1, updated.pets.get(0).getId());
+        assertEquals(WINDOW_SIZE, updated.pets.get(WINDOW_SIZE - 1).getId());
+        assertTrue(updated.atTop);
+        assertFalse(updated.atEnd);
+    }
+
+    @Test
+    public void newPetsAtTheEndOfAPageBeforeAnIdMoveItsStart() {
+        insertPets(3);
+        PetCatalogLoader loader = start(new PetCatalogLoader(RuntimeEnvironment.application,
+                PetEntry.buildPageBeforeUri(WINDOW_SIZE, 4), true));
+        assertEquals(3, lastWindow().pets.size());
+        assertTrue(lastWindow().atTop);
+
+        insertPets(4);
+        reload(loader);
+
+        PetCatalogLoader.Window updated = lastWindow();
+        assertEquals(WINDOW_SIZE, updated.pets.size());
+        assertEquals(3, updated.pets.get(0).getId());
+        assertEquals(7, updated.pets.get(WINDOW_SIZE - 1).getId());
+        assertFalse(updated.atTop);
+        assertTrue(updated.atEnd);
+    }
+
+    private void insertPets(int count) {
+        for (int i = 0; i < count; i++) {
+            resolver.insert(PetEntry.CONTENT_URI, pet("Pet " + i, "Tabby"));
+        }
+    }
+
+    private PetCatalogLoader start(PetCatalogLoader loader) {
+        loader.registerListener(0, new Loader.OnLoadCompleteListener<PetCatalogLoader.Window>() {
+            @Override
+            public void onLoadComplete(Loader<PetCatalogLoader.Window> loader, PetCatalogLoader.Window data) {
+                windows.add(data);
+            }
+        });
+        loader.startLoading();
+        await(1);
+        return loader;
+    }
+
+    /**
+     * Let the change notifications and the update throttle pass and wait for the next window.
+     */
+    private void reload(PetCatalogLoader loader) {
+        int loaded = windows.size();
+        ShadowLooper.idleMainLooper(1, TimeUnit.SECONDS);
+        if (windows.size() == loaded) {
+            loader.forceLoad();
+        }
+        await(loaded + 1);
+    }
+
+    private void await(int count) {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (windows.size() < count && System.currentTimeMillis() < deadline) {
+            Robolectric.flushBackgroundThreadScheduler();
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+        assertTrue("No window loaded", windows.size() >= count);
+    }
+
+    private PetCatalogLoader.Window lastWindow() {
+        return windows.get(windows.size() - 1);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.android.pets.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetDbHelperBreedIdTest {
+
+    private PetDbHelper helper;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        helper = new PetDbHelper(RuntimeEnvironment.application);
+        db = helper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+    }
+
+    @Test
+    public void idsAddedInACommittedTransactionAreCached() {
+        helper.beginTransaction(db);
+        long id;
+        try {
+            id = helper.breedId(db, "Tabby");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+//        Without the breed in the table only the cache still knows the id
+        db.delete(PetEntry.BREED_TABLE_NAME, null, null);
+
+        assertEquals(id, helper.breedId(db, "Tabby"));
+        assertEquals(0, breeds());
+    }
+
+    @Test
+    public void idsAddedInARolledBackTransactionAreForgotten() {
+        helper.beginTransaction(db);
+        try {
+            helper.breedId(db, "Tabby");
+        } finally {
+            db.endTransaction();
+        }
+
+        long id = helper.breedId(db, "Tabby");
+
+        assertEquals(1, breeds());
+        assertEquals(id, DatabaseUtils.longForQuery(db, "SELECT " + PetEntry._ID + " FROM "
+                + PetEntry.BREED_TABLE_NAME, null));
+    }
+
+    @Test
+    public void committedNestedTransactionWaitsForTheOuterOne() {
+        helper.beginTransaction(db);
+        try {
+            helper.beginTransaction(db);
+            try {
+                helper.breedId(db, "Tabby");
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            db.endTransaction();
+        }
+
+        helper.breedId(db, "Tabby");
+
+        assertEquals(1, breeds());
+    }
+
+    @Test
+    public void idsAddedInOtherTransactionsAreNotCached() {
+        db.beginTransaction();
+        try {
+            helper.breedId(db, "Tabby");
+        } finally {
+            db.endTransaction();
+        }
+
+        helper.breedId(db, "Tabby");
+
+        assertEquals(1, breeds());
+    }
+
+    private long breeds() {
+        return DatabaseUtils.queryNumEntries(db, PetEntry.BREED_TABLE_NAME);
+    }
+}
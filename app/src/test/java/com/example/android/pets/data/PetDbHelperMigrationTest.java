@@ -0,0 +1,151 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetDbHelperMigrationTest {
+
+    private static final String CATALOG_QUERY = "SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME
+            + ", " + PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME
+            + " ORDER BY " + PetEntry.COLUMN_PET_NAME;
+    private static final String FILTER_QUERY = "SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry.COLUMN_PET_GENDER + " = 1 AND " + PetEntry.COLUMN_PET_WEIGHT + " > 10";
+    private static final String NAME_QUERY = "SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry.COLUMN_PET_NAME + " = 'Tom'";
+    private static final String BREED_ID_QUERY = "SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry.COLUMN_PET_BREED_ID + " = 1";
+
+    private Context context;
+    private PetDbHelper helper;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+    }
+
+    @After
+    public void tearDown() {
+        if (helper != null) {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromFirstVersionKeepsPetsAndStopsFullScans() {
+        SQLiteDatabase old = createFirstVersion();
+        assertFullScan(plan(old, CATALOG_QUERY));
+        assertTrue(plan(old, CATALOG_QUERY).contains("USE TEMP B-TREE FOR ORDER BY"));
+        assertFullScan(plan(old, FILTER_QUERY));
+        assertFullScan(plan(old, NAME_QUERY));
+        old.close();
+
+        helper = new PetDbHelper(context);
+        SQLiteDatabase db = helper.getReadableDatabase();
+
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME));
+        assertEquals("Tabby", DatabaseUtils.stringForQuery(db, "SELECT " + PetEntry.COLUMN_PET_BREED
+                + " FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_NAME + " = 'Tom'", null));
+        assertIndexedPlans(db);
+    }
+
+    @Test
+    public void newDatabaseHasTheSameIndexes() {
+        helper = new PetDbHelper(context);
+        assertIndexedPlans(helper.getReadableDatabase());
+    }
+
+    @Test
+    public void idsCarryOverTheUpgrade() {
+        SQLiteDatabase old = createFirstVersion();
+//        The last id is deleted, AUTOINCREMENT must not hand it out again
+        old.delete(PetEntry.TABLE_NAME, PetEntry._ID + " = 3", null);
+        old.close();
+
+        helper = new PetDbHelper(context);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "New");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+        assertEquals(4, db.insert(PetEntry.STORAGE_TABLE_NAME, null, values));
+    }
+
+    private static void assertIndexedPlans(SQLiteDatabase db) {
+        String catalog = plan(db, CATALOG_QUERY);
+        assertTrue(catalog, catalog.contains("pet_records_name_breed_idx"));
+        assertFalse(catalog, catalog.contains("TEMP B-TREE"));
+        String filter = plan(db, FILTER_QUERY);
+        assertTrue(filter, filter.contains("pet_records_gender_weight_idx"));
+        String name = plan(db, NAME_QUERY);
+        assertTrue(name, name.contains("pet_records_name_breed_idx (name=?)"));
+        String breed = plan(db, BREED_ID_QUERY);
+        assertTrue(breed, breed.contains("pet_records_breed_idx (breed_id=?)"));
+    }
+
+    /**
+     * Older SQLite versions write "SCAN TABLE pets", newer ones "SCAN pets".
+     */
+    private static void assertFullScan(String plan) {
+        assertTrue(plan, plan.matches("(?s).*SCAN (TABLE )?" + PetEntry.TABLE_NAME + "\\b(?! USING).*"));
+    }
+
+    /**
+     * Create the database the way the first release did, with a few pets.
+     */
+    private SQLiteDatabase createFirstVersion() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath("pets.db"), null);
+        db.execSQL("CREATE TABLE " + PetEntry.TABLE_NAME + " ("
+                + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
+                + PetEntry.COLUMN_PET_BREED + " TEXT, "
+                + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+                + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);");
+        insertOldPet(db, "Tom", "Tabby", PetEntry.GENDER_MALE, 7);
+        insertOldPet(db, "Bella", null, PetEntry.GENDER_FEMALE, 12);
+        insertOldPet(db, "Zoe", "Tabby", PetEntry.GENDER_FEMALE, 3);
+        db.setVersion(1);
+        return db;
+    }
+
+    private static void insertOldPet(SQLiteDatabase db, String name, String breed, int gender, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        db.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * The steps of the query plan, one per line.
+     */
+    static String plan(SQLiteDatabase db, String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetDbHelperWalTest {
+
+    private PetDbHelper helper;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        helper = new PetDbHelper(RuntimeEnvironment.application, true);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        helper.close();
+    }
+
+    @Test
+    public void databaseIsOpenedInWalMode() {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertTrue(db.isWriteAheadLoggingEnabled());
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null).toLowerCase());
+    }
+
+    @Test
+    public void readerIsNotBlockedByOpenWriteTransaction() throws Exception {
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        insertPets(db, 10);
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<?> writer = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                db.beginTransaction();
+                try {
+                    insertPets(db, 5);
+                    written.countDown();
+                    release.await();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                return null;
+            }
+        });
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+
+//        The read runs while the transaction is open, and sees the data from before it
+        Future<Long> read = executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return countPets(helper.getReadableDatabase());
+            }
+        });
+        assertEquals(10, (long) read.get(5, TimeUnit.SECONDS));
+
+        release.countDown();
+        writer.get(5, TimeUnit.SECONDS);
+        assertEquals(15, countPets(db));
+    }
+
+    private static long countPets(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME);
+    }
+
+    static void insertPets(SQLiteDatabase db, int count) {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < count; i++) {
+            values.put(PetEntry.COLUMN_PET_NAME, "Pet " + i);
+            values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+            values.put(PetEntry.COLUMN_PET_WEIGHT, i % 40);
+            db.insertOrThrow(PetEntry.STORAGE_TABLE_NAME, null, values);
+        }
+    }
+}
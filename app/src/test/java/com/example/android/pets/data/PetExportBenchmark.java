@@ -0,0 +1,104 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import static com.example.android.pets.data.PetProviderBulkInsertTest.pet;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Export of the largest table size as CSV and as JSON lines. The benchmark run has a small heap,
+ * see app/build.gradle, so an export that holds the table in memory fails instead of only
+ * getting slower. The peak heap use of each export is part of the result. The table is filled
+ * through the provider directly, see {@link PetProviderBenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetExportBenchmark {
+
+    private static final int SEED_CHUNK = 10000;
+
+    private PetProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+    }
+
+    @Test
+    public void exportOfTheLargestTable() throws Exception {
+        BenchmarkReport report = new BenchmarkReport(PetExportBenchmark.class);
+        int[] rowCounts = BenchmarkReport.rowCounts();
+        int rows = rowCounts[rowCounts.length - 1];
+        for (int filled = 0; filled < rows; ) {
+            ContentValues[] pets = new ContentValues[Math.min(SEED_CHUNK, rows - filled)];
+            for (int i = 0; i < pets.length; i++) {
+                pets[i] = pet("Pet " + (filled + i), "Breed " + ((filled + i) % 50));
+            }
+            filled += provider.bulkInsert(PetEntry.CONTENT_URI, pets);
+        }
+
+        for (String format : new String[]{PetEntry.EXPORT_FORMAT_CSV, PetEntry.EXPORT_FORMAT_JSON}) {
+            CountingStream out = new CountingStream();
+            System.gc();
+            resetPeakHeap();
+            long start = System.nanoTime();
+            new PetExporter(provider.dbHelper.getReadableDatabase(), format).writeTo(out);
+            long elapsed = System.nanoTime() - start;
+
+//            CSV has a header line, JSON lines don't
+            assertEquals(PetEntry.EXPORT_FORMAT_CSV.equals(format) ? rows + 1 : rows, out.lines);
+            JSONObject result = report.add("export_" + format, rows, new long[]{elapsed}, elapsed);
+            result.put("bytes", out.bytes);
+            result.put("peak_heap_bytes", peakHeap());
+        }
+        report.write();
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Sum of the peak use of the heap pools since {@link #resetPeakHeap()}. The pools peak at
+     * different times, so this overestimates the real peak.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static final class CountingStream extends OutputStream {
+        long bytes;
+        int lines;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+            if (b == '\n') {
+                lines++;
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.pets.data.PetProviderBulkInsertTest.pet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetExporterTest {
+
+    private static final String[] COLUMNS = {PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT};
+
+    private PetProvider provider;
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void csvExportImportsBackUnchanged() throws Exception {
+        insertAwkwardPets();
+        List<String> before = pets();
+
+        String csv = export(PetEntry.EXPORT_FORMAT_CSV);
+        resolver.delete(PetEntry.CONTENT_URI, null, null);
+        PetImporter.Result result = new PetImporter(resolver, "round trip", 2, null)
+                .importFrom(new StringReader(csv));
+
+        assertEquals(before.size(), result.rowsImported);
+        assertEquals(0, result.rowsRejected);
+        assertEquals(before, pets());
+    }
+
+    @Test
+    public void jsonLinesHoldEveryPet() throws Exception {
+        insertAwkwardPets();
+        List<String> before = pets();
+
+        String[] lines = export(PetEntry.EXPORT_FORMAT_JSON).split("\n");
+
+        List<String> exported = new ArrayList<>();
+        for (String line : lines) {
+            JSONObject pet = new JSONObject(line);
+            exported.add(pet.getString(PetEntry.COLUMN_PET_NAME) + "|"
+                    + (pet.isNull(PetEntry.COLUMN_PET_BREED) ? null : pet.getString(PetEntry.COLUMN_PET_BREED)) + "|"
+                    + pet.getInt(PetEntry.COLUMN_PET_GENDER) + "|" + pet.getInt(PetEntry.COLUMN_PET_WEIGHT));
+        }
+        assertEquals(before, exported);
+    }
+
+    @Test
+    public void exportReadsTheTableInChunks() throws Exception {
+        ContentValues[] pets = new ContentValues[2500];
+        for (int i = 0; i < pets.length; i++) {
+            pets[i] = pet("Pet " + i, "Breed " + (i % 10));
+        }
+        resolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+        CountingStream out = new CountingStream();
+
+        new PetExporter(provider.dbHelper.getReadableDatabase(), PetEntry.EXPORT_FORMAT_CSV).writeTo(out);
+
+//        The header and one line per pet, none lost or repeated at the chunk borders
+        assertEquals(pets.length + 1, out.lines);
+    }
+
+    private void insertAwkwardPets() {
+        resolver.insert(PetEntry.CONTENT_URI, pet("Tom, the cat", "Tabby"));
+        resolver.insert(PetEntry.CONTENT_URI, pet("Say \"cheese\"", null));
+        resolver.insert(PetEntry.CONTENT_URI, pet("Two\nlines", "Persian"));
+        resolver.insert(PetEntry.CONTENT_URI, pet("Zoë \\ backslash\ttab", "Maine Coon"));
+        ContentValues heavy = pet("Heavy", "Tabby");
+        heavy.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE);
+        heavy.put(PetEntry.COLUMN_PET_WEIGHT, 42);
+        resolver.insert(PetEntry.CONTENT_URI, heavy);
+    }
+
+    @Test
+    public void exportOfAllSheltersIsRefused() {
+        Uri uri = PetEntry.withShelter(PetEntry.buildExportUri(PetEntry.EXPORT_FORMAT_CSV), PetEntry.ALL_SHELTERS);
+        try {
+            provider.openFile(uri, "r");
+            fail("All shelters were exported");
+        } catch (FileNotFoundException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("single shelter"));
+        }
+        try {
+            provider.openTypedAssetFile(uri, PetEntry.EXPORT_JSON_TYPE, null);
+            fail("All shelters were exported");
+        } catch (FileNotFoundException expected) {
+        }
+    }
+
+    private String export(String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PetExporter(provider.dbHelper.getReadableDatabase(), format).writeTo(out);
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * All pets by id, one string each.
+     */
+    private List<String> pets() {
+        List<String> pets = new ArrayList<>();
+        Cursor cursor = resolver.query(PetEntry.CONTENT_URI, COLUMNS, null, null, PetEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                pets.add(cursor.getString(0) + "|" + cursor.getString(1) + "|" + cursor.getInt(2) + "|"
+                        + cursor.getInt(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertTrue(pets.size() > 0);
+        return pets;
+    }
+
+    private static final class CountingStream extends OutputStream {
+        int lines;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.ImportEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetImporterTest {
+
+    private static final String HEADER = "name,breed,gender,weight\n";
+
+    private ContentResolver resolver;
+    private final List<String> events = new ArrayList<>();
+    private final PetImporter.Listener listener = new PetImporter.Listener() {
+        @Override
+        public void onProgress(int rowsDone, int rowsImported, int rowsRejected) {
+            events.add("progress " + rowsDone + " " + rowsImported + " " + rowsRejected);
+        }
+
+        @Override
+        public void onRowRejected(int row, String reason) {
+            events.add("rejected " + row);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void invalidRowsAreReportedAndSkipped() throws Exception {
+        String csv = HEADER
+                + "Tom,Tabby,1,4\n"
+                + ",Tabby,1,4\n"
+                + "Bella,,7,3\n"
+                + "Zoe,Persian,2,heavy\n"
+                + "Max,,1,\n";
+
+        PetImporter.Result result = new PetImporter(resolver, "rejects", 2, listener)
+                .importFrom(new StringReader(csv));
+
+        assertEquals(2, result.rowsImported);
+        assertEquals(3, result.rowsRejected);
+        assertEquals(2, count(PetEntry.CONTENT_URI));
+        assertEquals("[rejected 2, progress 2 1 1, rejected 3, rejected 4, progress 4 1 3, progress 5 2 3]",
+                events.toString());
+//        A finished import leaves no progress behind
+        assertEquals(0, count(ImportEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void rowsNotMatchingTheHeaderAreRejected() throws Exception {
+        String csv = HEADER
+                + "Tom,Tabby,1,4\n"
+//                Both would pass validation, but their fields may be in the wrong columns
+                + "Bella,Persian,2,3,7\n"
+                + "Oscar,Siamese,1\n"
+                + "Max,,1,5\n";
+
+        PetImporter.Result result = new PetImporter(resolver, "malformed", 10, listener)
+                .importFrom(new StringReader(csv));
+
+        assertEquals(2, result.rowsImported);
+        assertEquals(2, result.rowsRejected);
+        assertEquals("[rejected 2, rejected 3, progress 4 2 2]", events.toString());
+        assertEquals(2, count(PetEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void fieldsAreTrimmedAndEmptyBreedIsNone() throws Exception {
+        String csv = HEADER + "  Tom , , 1 ,\n";
+
+        assertEquals(1, new PetImporter(resolver, "trimmed", 10, null)
+                .importFrom(new StringReader(csv)).rowsImported);
+
+        Cursor cursor = resolver.query(PetEntry.CONTENT_URI, new String[]{PetEntry.COLUMN_PET_NAME,
+                PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Tom", cursor.getString(0));
+            assertTrue(cursor.isNull(1));
+            assertEquals(PetEntry.GENDER_MALE, cursor.getInt(2));
+            assertEquals(0, cursor.getInt(3));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void importResumesAfterTheLastCommittedBatch() throws Exception {
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (int i = 1; i <= 10; i++) {
+            csv.append("Pet ").append(i).append(",Tabby,1,").append(i).append('\n');
+        }
+        String input = csv.toString();
+
+//        The first attempt dies in the middle of the third batch
+        int crashAt = input.indexOf("Pet 8");
+        try {
+            new PetImporter(resolver, "resume", 3, listener).importFrom(new CrashingReader(input, crashAt));
+            fail("The reader failed");
+        } catch (IOException expected) {
+        }
+        assertEquals(6, count(PetEntry.CONTENT_URI));
+        assertEquals(1, count(ImportEntry.CONTENT_URI));
+
+        events.clear();
+        PetImporter.Result result = new PetImporter(resolver, "resume", 3, listener)
+                .importFrom(new StringReader(input));
+
+        assertEquals(10, result.rowsImported);
+        assertEquals("[progress 9 9 0, progress 10 10 0]", events.toString());
+        assertEquals(10, count(PetEntry.CONTENT_URI));
+        assertEquals(0, count(ImportEntry.CONTENT_URI));
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = resolver.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads the input up to a position, then fails like a lost connection or a killed process.
+     */
+    private static final class CrashingReader extends Reader {
+        private final Reader in;
+        private int remaining;
+
+        CrashingReader(String input, int crashAt) {
+            this.in = new StringReader(input);
+            this.remaining = crashAt;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                throw new IOException("Connection lost");
+            }
+            int read = in.read(buffer, offset, Math.min(length, remaining));
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.pets.data;
+
+import android.support.v7.widget.RecyclerView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetListAdapterTest {
+
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    @Test
+    public void changingOnePetRebindsOnlyItsRowOf10k() throws InterruptedException {
+        assertOnlyChangedRowIsUpdated(10000);
+    }
+
+    @Test
+    public void changingOnePetRebindsOnlyItsRowOf100k() throws InterruptedException {
+        assertOnlyChangedRowIsUpdated(100000);
+    }
+
+    @Test
+    public void deletingOnePetRemovesOnlyItsRow() throws InterruptedException {
+        PetListAdapter adapter = new PetListAdapter(null, null);
+        RecordingObserver observer = new RecordingObserver();
+        adapter.registerAdapterDataObserver(observer);
+        List<Pet> pets = pets(1000);
+        adapter.submitList(pets);
+        observer.events.clear();
+
+        List<Pet> remaining = new ArrayList<>(pets);
+        remaining.remove(10);
+        adapter.submitList(remaining);
+        awaitEvents(observer);
+
+        assertEquals(Collections.singletonList("removed 10 1"), observer.events);
+        assertEquals(999, adapter.getItemCount());
+    }
+
+    /**
+     * Submit a list with one renamed pet and check that only its row is notified.
+     */
+    private static void assertOnlyChangedRowIsUpdated(int size) throws InterruptedException {
+        PetListAdapter adapter = new PetListAdapter(null, null);
+        RecordingObserver observer = new RecordingObserver();
+        adapter.registerAdapterDataObserver(observer);
+        List<Pet> pets = pets(size);
+        adapter.submitList(pets);
+        assertEquals(size, adapter.getItemCount());
+        observer.events.clear();
+
+        int position = size / 2;
+        Pet pet = pets.get(position);
+        List<Pet> changed = new ArrayList<>(pets);
+        changed.set(position, new Pet(pet.getId(), pet.getName() + " Jr.", pet.getBreed()));
+        adapter.submitList(changed);
+        awaitEvents(observer);
+
+        assertEquals(Collections.singletonList("changed " + position + " 1"), observer.events);
+        assertEquals(pet.getId(), adapter.getItemId(position));
+    }
+
+    /**
+     * Run the main thread until the diff computed in the background was dispatched to the adapter.
+     */
+    private static void awaitEvents(RecordingObserver observer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (observer.events.isEmpty()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The adapter was not notified");
+            }
+            Thread.sleep(5);
+            ShadowLooper.runUiThreadTasks();
+        }
+    }
+
+    private static List<Pet> pets(int count) {
+        List<Pet> pets = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            pets.add(new Pet(i, "Pet " + i, i % 3 == 0 ? null : "Breed " + i % 17));
+        }
+        return pets;
+    }
+
+    /**
+     * Records every notification of the adapter as text.
+     */
+    private static final class RecordingObserver extends RecyclerView.AdapterDataObserver {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onChanged() {
+            events.add("data set changed");
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            events.add("changed " + positionStart + " " + itemCount);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            events.add("inserted " + positionStart + " " + itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            events.add("removed " + positionStart + " " + itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            events.add("moved " + fromPosition + " " + toPosition + " " + itemCount);
+        }
+    }
+}
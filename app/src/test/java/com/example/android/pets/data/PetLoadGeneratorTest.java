@@ -0,0 +1,94 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetLoadGeneratorTest {
+
+    /**
+     * Updates a pet through the list of its shelter, so observers of the list hear of the change
+     * but observers of the pet don't.
+     */
+    public static class ListNotifyingProvider extends PetProvider {
+        @Override
+        public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+            if (uri.getLastPathSegment().matches("\\d+")) {
+                Uri listUri = PetEntry.withShelter(PetEntry.CONTENT_URI, uri.getPathSegments().get(1));
+                return super.update(listUri, contentValues, PetEntry._ID + "=?",
+                        new String[]{String.valueOf(ContentUris.parseId(uri))});
+            }
+            return super.update(uri, contentValues, selection, selectionArgs);
+        }
+    }
+
+    @Test
+    public void everyWriteNotifiesItsPet() throws Exception {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+
+        PetLoadGenerator.Report report = run();
+
+        assertEquals(0, report.otherErrors);
+        assertTrue(report.notificationsExpected > 0);
+        assertEquals(report.notificationsExpected, report.notificationsReceived);
+        assertEquals(0, report.lostNotifications());
+        assertEquals(0, report.otherNotifications);
+    }
+
+    @Test
+    public void notificationsOfOtherUrisDoNotMakeUpForLostOnes() throws Exception {
+        Robolectric.setupContentProvider(ListNotifyingProvider.class, PetContract.CONTENT_AUTHORITY);
+
+        PetLoadGenerator.Report report = run();
+
+        int updates = report.counts[PetLoadGenerator.OP_UPDATE];
+        assertTrue(updates > 0);
+        assertEquals(updates, report.lostNotifications());
+        assertEquals(updates, report.otherNotifications);
+    }
+
+    private static PetLoadGenerator.Report run() throws InterruptedException {
+        PetLoadGenerator.Config config = new PetLoadGenerator.Config();
+        config.threads = 2;
+        config.operations = 200;
+        config.datasetSize = 100;
+        config.readPercent = 50;
+//        Only updates, a deleted pet may be picked again and not be updated
+        config.insertWeight = 0;
+        config.deleteWeight = 0;
+
+//        Robolectric's clock only moves when told to, without this the wait for lost notifications never ends
+        Thread clock = new Thread() {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    Robolectric.getForegroundThreadScheduler().advanceBy(100);
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        clock.start();
+        try {
+            return new PetLoadGenerator(RuntimeEnvironment.application.getContentResolver(), config).run();
+        } finally {
+            clock.interrupt();
+            clock.join();
+        }
+    }
+}
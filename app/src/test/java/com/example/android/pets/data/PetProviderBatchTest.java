@@ -0,0 +1,148 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.pets.data.PetProviderBulkInsertTest.pet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderBatchTest {
+
+    private PetProvider provider;
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void failingOperationRollsBackTheEarlierOnes() {
+        Uri tom = resolver.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        shadowOf(resolver).getNotifiedUris().clear();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                .withValues(pet("Bella", "Persian")).build());
+        operations.add(ContentProviderOperation.newUpdate(tom)
+                .withValue(PetEntry.COLUMN_PET_NAME, "Tommy").build());
+//        Two pets are deleted, not three, so the last operation fails
+        operations.add(ContentProviderOperation.newDelete(PetEntry.CONTENT_URI).withExpectedCount(3).build());
+
+        try {
+            provider.applyBatch(operations);
+            fail("The count of the delete didn't match");
+        } catch (OperationApplicationException expected) {
+        }
+
+        assertEquals("[Tom]", names());
+        assertEquals(0, shadowOf(resolver).getNotifiedUris().size());
+    }
+
+    @Test
+    public void notificationsAreSentOncePerUriAfterTheCommit() throws Exception {
+        Uri tom = resolver.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        Uri bella = resolver.insert(PetEntry.CONTENT_URI, pet("Bella", "Persian"));
+        shadowOf(resolver).getNotifiedUris().clear();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(tom)
+                .withValue(PetEntry.COLUMN_PET_NAME, "Tommy").build());
+        operations.add(ContentProviderOperation.newUpdate(bella)
+                .withValue(PetEntry.COLUMN_PET_WEIGHT, 6).build());
+        operations.add(ContentProviderOperation.newUpdate(tom)
+                .withValue(PetEntry.COLUMN_PET_WEIGHT, 7).build());
+
+        provider.applyBatch(operations);
+
+        List<ShadowContentResolver.NotifiedUri> notified = shadowOf(resolver).getNotifiedUris();
+        assertEquals(2, notified.size());
+        assertEquals(tom, notified.get(0).uri);
+        assertEquals(bella, notified.get(1).uri);
+    }
+
+    @Test
+    public void listChangeInABatchIsTheOnlyNotification() throws Exception {
+        Uri tom = resolver.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        shadowOf(resolver).getNotifiedUris().clear();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(tom)
+                .withValue(PetEntry.COLUMN_PET_NAME, "Tommy").build());
+        operations.add(ContentProviderOperation.newUpdate(PetEntry.CONTENT_URI)
+                .withValue(PetEntry.COLUMN_PET_WEIGHT, 7).build());
+
+        provider.applyBatch(operations);
+
+        List<ShadowContentResolver.NotifiedUri> notified = shadowOf(resolver).getNotifiedUris();
+        assertEquals(1, notified.size());
+        assertEquals(PetEntry.CONTENT_URI, notified.get(0).uri);
+    }
+
+    @Test
+    public void batchOverAllSheltersIsRefused() {
+        assertRefused(ContentProviderOperation.newInsert(
+                PetEntry.withShelter(PetEntry.CONTENT_URI, PetEntry.ALL_SHELTERS))
+                .withValues(pet("Tom", "Tabby")).build());
+    }
+
+    @Test
+    public void batchOverTwoSheltersIsRefused() {
+        assertRefused(
+                ContentProviderOperation.newInsert(PetEntry.CONTENT_URI).withValues(pet("Tom", "Tabby")).build(),
+                ContentProviderOperation.newInsert(PetEntry.withShelter(PetEntry.CONTENT_URI, "north"))
+                        .withValues(pet("Bella", "Persian")).build());
+    }
+
+    @Test
+    public void batchNamingTheDefaultShelterIsRefused() {
+        Uri uri = PetEntry.withShelter(PetEntry.CONTENT_URI, "north").buildUpon()
+                .path(PetContract.PATH_SHELTERS + "/" + PetEntry.DEFAULT_SHELTER + "/" + PetContract.PATH_PETS)
+                .build();
+        assertRefused(ContentProviderOperation.newInsert(uri).withValues(pet("Tom", "Tabby")).build());
+    }
+
+    private void assertRefused(ContentProviderOperation... batch) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentProviderOperation operation : batch) {
+            operations.add(operation);
+        }
+        try {
+            provider.applyBatch(operations);
+            fail("The batch was applied");
+        } catch (OperationApplicationException expected) {
+        }
+        assertEquals("[]", names());
+    }
+
+    private String names() {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = resolver.query(PetEntry.CONTENT_URI, new String[]{PetEntry.COLUMN_PET_NAME},
+                null, null, PetEntry.COLUMN_PET_NAME);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names.toString();
+    }
+}
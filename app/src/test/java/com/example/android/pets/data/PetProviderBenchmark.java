@@ -0,0 +1,186 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.example.android.pets.data.PetProviderBulkInsertTest.pet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Throughput and latency of the hot paths of {@link PetProvider} as the table grows: inserting a
+ * pet, reading one by {@link PetEntry#CONTENT_URI}/id, paging through the catalog, updating and
+ * deleting a pet. Each table size is filled with bulk inserts first, which are not timed.
+ * <p>
+ * The benchmarks call the provider directly. Robolectric's content resolver keeps every value
+ * written through it for assertions, which would fill the heap long before a million rows.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderBenchmark {
+
+    /**
+     * Page size of the catalog.
+     */
+    private static final int PAGE_SIZE = 50;
+
+    private static final int SEED_CHUNK = 10000;
+
+    private PetProvider provider;
+    private final Random random = new Random(42);
+    private int rows;
+
+    /**
+     * Ids of the filled rows, as first and last id of each fill. The ids of the pets inserted
+     * and deleted by the benchmark lie in between.
+     */
+    private final List<long[]> idRanges = new ArrayList<>();
+    private long nextId = 1;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+    }
+
+    @Test
+    public void hotPathsAtEachTableSize() throws Exception {
+        BenchmarkReport report = new BenchmarkReport(PetProviderBenchmark.class);
+        int operations = BenchmarkReport.operations();
+
+        for (int rowCount : BenchmarkReport.rowCounts()) {
+            fill(rowCount);
+
+            Uri[] inserted = new Uri[operations];
+            long[] latencies = new long[operations];
+            long start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                long operationStart = System.nanoTime();
+                inserted[i] = provider.insert(PetEntry.CONTENT_URI, pet("Inserted " + i, "Breed " + (i % 50)));
+                latencies[i] = System.nanoTime() - operationStart;
+            }
+            report.add("insert", rowCount, latencies, System.nanoTime() - start);
+            nextId = ContentUris.parseId(inserted[operations - 1]) + 1;
+
+            start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                Uri petUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, randomId());
+                long operationStart = System.nanoTime();
+                Cursor cursor = provider.query(petUri, null, null, null, null);
+                try {
+                    assertTrue(cursor.moveToFirst());
+                } finally {
+                    cursor.close();
+                }
+                latencies[i] = System.nanoTime() - operationStart;
+            }
+            report.add("query_pet_id", rowCount, latencies, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            long[] pageLatencies = scanCatalog(operations);
+            report.add("catalog_page", rowCount, pageLatencies, System.nanoTime() - start);
+
+            ContentValues weight = new ContentValues();
+            start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                Uri petUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, randomId());
+                weight.put(PetEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(40));
+                long operationStart = System.nanoTime();
+                assertEquals(1, provider.update(petUri, weight, null, null));
+                latencies[i] = System.nanoTime() - operationStart;
+            }
+            report.add("update", rowCount, latencies, System.nanoTime() - start);
+
+//            Delete what was inserted above, so the next table size starts from this one
+            start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                long operationStart = System.nanoTime();
+                assertEquals(1, provider.delete(inserted[i], null, null));
+                latencies[i] = System.nanoTime() - operationStart;
+            }
+            report.add("delete", rowCount, latencies, System.nanoTime() - start);
+        }
+        report.write();
+    }
+
+    /**
+     * Page through the catalog from the top the way the catalog screen does, reading every row.
+     * Stop after the given number of pages or at the end of the table.
+     */
+    private long[] scanCatalog(int pages) {
+        long[] latencies = new long[pages];
+        int page = 0;
+        long lastId = 0;
+        for (; page < pages; page++) {
+            Uri pageUri = page == 0 ? PetEntry.buildPageUri(PAGE_SIZE) : PetEntry.buildPageAfterUri(PAGE_SIZE, lastId);
+            long operationStart = System.nanoTime();
+            Cursor cursor = provider.query(pageUri, null, null, null, null);
+            int rowsRead = 0;
+            try {
+                int idColumn = cursor.getColumnIndexOrThrow(PetEntry._ID);
+                int nameColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(idColumn);
+                    cursor.getString(nameColumn);
+                    rowsRead++;
+                }
+            } finally {
+                cursor.close();
+            }
+            latencies[page] = System.nanoTime() - operationStart;
+            if (rowsRead < PAGE_SIZE) {
+                page++;
+                break;
+            }
+        }
+        long[] measured = new long[page];
+        System.arraycopy(latencies, 0, measured, 0, page);
+        return measured;
+    }
+
+    /**
+     * Grow the table to the row count with bulk inserts.
+     */
+    private void fill(int rowCount) {
+        long firstId = nextId;
+        while (rows < rowCount) {
+            ContentValues[] pets = new ContentValues[Math.min(SEED_CHUNK, rowCount - rows)];
+            for (int i = 0; i < pets.length; i++) {
+                pets[i] = pet("Pet " + (rows + i), "Breed " + ((rows + i) % 50));
+            }
+            int inserted = provider.bulkInsert(PetEntry.CONTENT_URI, pets);
+            rows += inserted;
+            nextId += inserted;
+        }
+        if (nextId > firstId) {
+            idRanges.add(new long[]{firstId, nextId - 1});
+        }
+    }
+
+    /**
+     * Return the id of a random filled row.
+     */
+    private long randomId() {
+        long index = random.nextInt(rows);
+        for (long[] range : idRanges) {
+            long size = range[1] - range[0] + 1;
+            if (index < size) {
+                return range[0] + index;
+            }
+            index -= size;
+        }
+        throw new AssertionError("No pet number " + index);
+    }
+}
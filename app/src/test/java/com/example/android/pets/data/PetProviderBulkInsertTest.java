@@ -0,0 +1,135 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderBulkInsertTest {
+
+    private PetProvider provider;
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void bulkInsertWritesAllRowsAndNotifiesOnce() {
+        ContentValues[] pets = new ContentValues[100];
+        for (int i = 0; i < pets.length; i++) {
+            pets[i] = pet("Pet " + i, "Breed " + (i % 7));
+        }
+
+        assertEquals(pets.length, resolver.bulkInsert(PetEntry.CONTENT_URI, pets));
+
+        assertEquals(pets.length, count(PetEntry.CONTENT_URI));
+        List<ShadowContentResolver.NotifiedUri> notified = shadowOf(resolver).getNotifiedUris();
+        assertEquals(1, notified.size());
+        assertEquals(PetEntry.CONTENT_URI, notified.get(0).uri);
+    }
+
+    @Test
+    public void bulkInsertWithBadRowInsertsNothing() {
+        resolver.insert(PetEntry.CONTENT_URI, pet("Existing", "Tabby"));
+        shadowOf(resolver).getNotifiedUris().clear();
+        ContentValues[] pets = {
+                pet("First", "Tabby"),
+                pet("", "Persian"),
+                pet("Third", "Siamese")
+        };
+
+        try {
+            resolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+            fail("A pet without name was inserted");
+        } catch (IllegalArgumentException expected) {
+            // The empty name is rejected before anything is written
+        }
+
+        assertEquals(1, count(PetEntry.CONTENT_URI));
+        assertEquals(0, shadowOf(resolver).getNotifiedUris().size());
+    }
+
+    @Test
+    public void bulkInsertWithoutGenderInsertsNothing() {
+//        Still four columns, a stray one in place of the gender
+        ContentValues withoutGender = pet("Second", "Persian");
+        withoutGender.remove(PetEntry.COLUMN_PET_GENDER);
+        withoutGender.put("sex", PetEntry.GENDER_FEMALE);
+        ContentValues[] pets = {pet("First", "Tabby"), withoutGender, pet("Third", "Siamese")};
+
+        try {
+            resolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+            fail("A pet without gender was inserted");
+        } catch (IllegalArgumentException expected) {
+            // Rejected before the transaction starts
+        }
+
+        withoutGender.remove("sex");
+        try {
+            resolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+            fail("A pet without gender was inserted");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals(0, count(PetEntry.CONTENT_URI));
+        assertEquals(0, shadowOf(resolver).getNotifiedUris().size());
+    }
+
+    @Test
+    public void bulkInsertRollsBackWhenWritingFails() {
+//        The row is valid, the database refuses it only once the first row is written
+        provider.dbHelper.getWritableDatabase().execSQL("CREATE TRIGGER refuse_broken BEFORE INSERT ON "
+                + PetEntry.STORAGE_TABLE_NAME + " WHEN NEW." + PetEntry.COLUMN_PET_NAME + " = 'Broken'"
+                + " BEGIN SELECT RAISE(ABORT, 'refused'); END");
+        ContentValues[] pets = {pet("First", "Tabby"), pet("Broken", "Persian"), pet("Third", "Siamese")};
+
+        try {
+            resolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+            fail("The refused pet was inserted");
+        } catch (SQLiteConstraintException expected) {
+            // RAISE(ABORT) fails the statement
+        }
+
+        assertEquals(0, count(PetEntry.CONTENT_URI));
+        assertEquals(0, shadowOf(resolver).getNotifiedUris().size());
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = resolver.query(uri, new String[]{PetEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static ContentValues pet(String name, String breed) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 5);
+        return values;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.DraftEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+
+import static com.example.android.pets.data.PetProviderBulkInsertTest.pet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderMetricsTest {
+
+    private PetProvider provider;
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void batchIsRecordedWithItsOperations() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                    .withValues(pet("Pet " + i, "Tabby")).build());
+        }
+
+        provider.applyBatch(operations);
+
+        Bundle metrics = metrics();
+        assertEquals(1, metrics.getLong("apply_batch.pets." + PetContract.METRICS_COUNT));
+        assertEquals(3, metrics.getLong("apply_batch.pets." + PetContract.METRICS_ROWS));
+        assertEquals(3, metrics.getLong("insert.pets." + PetContract.METRICS_COUNT));
+    }
+
+    @Test
+    public void queryRowsAreRecorded() {
+        resolver.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        resolver.insert(PetEntry.CONTENT_URI, pet("Bella", "Persian"));
+
+        resolver.query(PetEntry.CONTENT_URI, null, null, null, null).close();
+
+        assertEquals(2, metrics().getLong("query.pets." + PetContract.METRICS_ROWS));
+    }
+
+    @Test
+    public void unreadCursorIsNotCounted() {
+        ContentValues draft = new ContentValues();
+        draft.put(DraftEntry.COLUMN_PET_ID, DraftEntry.NEW_PET_ID);
+        draft.put(DraftEntry.COLUMN_PET_NAME, "Tom");
+        resolver.insert(DraftEntry.CONTENT_URI, draft);
+
+//        Drafts aren't cached, so nothing reads the cursor before the caller does
+        Cursor cursor = provider.query(ContentUris.withAppendedId(DraftEntry.CONTENT_URI, DraftEntry.NEW_PET_ID),
+                null, null, null, null);
+        try {
+            assertFalse(((AbstractWindowedCursor) cursor).hasWindow());
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        assertEquals(0, metrics().getLong("query.other." + PetContract.METRICS_ROWS));
+    }
+
+    @Test
+    public void callsAreRecorded() {
+        resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_CACHE_STATS, null, null);
+        resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_SLOW_LOG, null, null);
+
+//        The metrics call itself is recorded once it returns, so it is not part of its own snapshot
+        assertEquals(2, metrics().getLong("call.other." + PetContract.METRICS_COUNT));
+    }
+
+    @Test
+    public void failedOpenIsRecorded() {
+        try {
+            provider.openFile(PetEntry.buildPhotoUri(42), "r");
+            fail("A pet without a photo has no photo file");
+        } catch (FileNotFoundException expected) {
+        }
+
+        assertEquals(1, metrics().getLong("open_file.photo." + PetContract.METRICS_COUNT));
+    }
+
+    private Bundle metrics() {
+        return resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_METRICS, null, null);
+    }
+}
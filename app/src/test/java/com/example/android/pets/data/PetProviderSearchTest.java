@@ -0,0 +1,117 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.pets.data.PetProviderBulkInsertTest.pet;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderSearchTest {
+
+    private ContentResolver resolver;
+    private Uri tom;
+    private Uri bella;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+        tom = resolver.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        bella = resolver.insert(PetEntry.CONTENT_URI, pet("Bella", "Tonkinese"));
+        resolver.insert(PetEntry.CONTENT_URI, pet("Oscar", "Persian"));
+        resolver.insert(PetEntry.CONTENT_URI, pet("Little Toby", "Siamese"));
+    }
+
+    @Test
+    public void prefixMatchesNameAndBreed() {
+        assertEquals("[Tom, Bella, Little Toby]", search("to"));
+        assertEquals("[Oscar]", search("PERS"));
+    }
+
+    @Test
+    public void everyWordHasToMatch() {
+        assertEquals("[Tom]", search("tom tab"));
+        assertEquals("[Little Toby]", search("lit, tob"));
+        assertEquals("[]", search("tom persian"));
+    }
+
+    @Test
+    public void namesStartingWithTheFirstWordComeFirst() {
+//        Then by name, Toby's name has the word but doesn't start with it
+        assertEquals("[Tom, Bella, Little Toby]", search("to"));
+    }
+
+    @Test
+    public void sortOrderOfTheCallerReplacesTheRanking() {
+        assertEquals("[Bella, Little Toby, Tom]", names(resolver.query(PetEntry.buildSearchUri("to"),
+                new String[]{PetEntry.COLUMN_PET_NAME}, null, null, PetEntry.COLUMN_PET_NAME)));
+    }
+
+    @Test
+    public void indexFollowsUpdatesAndDeletes() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Max");
+        values.put(PetEntry.COLUMN_PET_BREED, "Bengal");
+        resolver.update(tom, values, null, null);
+        resolver.delete(bella, null, null);
+
+        assertEquals("[Little Toby]", search("to"));
+        assertEquals("[Max]", search("max"));
+        assertEquals("[Max]", search("beng"));
+    }
+
+    @Test
+    public void textWithoutWordsMatchesNothing() {
+        assertEquals("[]", search(" "));
+        assertEquals("[]", search("*\"-"));
+    }
+
+    @Test
+    public void resultsAreLimited() {
+        ContentValues[] pets = new ContentValues[60];
+        for (int i = 0; i < pets.length; i++) {
+            pets[i] = pet("Tiger " + i, "Bengal");
+        }
+        resolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+
+        assertEquals(50, names(query(PetEntry.buildSearchUri("tiger"))).split(",").length);
+        Uri limited = PetEntry.buildSearchUri("tiger").buildUpon()
+                .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, "3").build();
+        assertEquals("[Tiger 0, Tiger 1, Tiger 10]", names(query(limited)));
+    }
+
+    private String search(String text) {
+        return names(query(PetEntry.buildSearchUri(text)));
+    }
+
+    private Cursor query(Uri uri) {
+        return resolver.query(uri, new String[]{PetEntry.COLUMN_PET_NAME}, null, null, null);
+    }
+
+    private static String names(Cursor cursor) {
+        List<String> names = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names.toString();
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.android.pets.data.PetProviderBulkInsertTest.pet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderShelterTest {
+
+    private static final Uri NORTH = PetEntry.withShelter(PetEntry.CONTENT_URI, "north");
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void shelterIsPartOfThePath() {
+        Uri page = PetEntry.withShelter(PetEntry.buildPageAfterUri(20, 7), "north");
+
+        assertEquals("content://com.example.android.pets/shelters/north/pets?limit=20&after_id=7", page.toString());
+        assertEquals(PetEntry.buildPageAfterUri(20, 7), PetEntry.withShelter(page, PetEntry.DEFAULT_SHELTER));
+        assertEquals(PetEntry.withShelter(PetEntry.buildPageAfterUri(20, 7), "south"),
+                PetEntry.withShelter(page, "south"));
+    }
+
+    @Test
+    public void writeNotifiesOnlyObserversOfItsShelter() {
+        RecordingObserver defaultObserver = new RecordingObserver();
+        RecordingObserver northObserver = new RecordingObserver();
+        resolver.registerContentObserver(PetEntry.CONTENT_URI, true, defaultObserver);
+        resolver.registerContentObserver(NORTH, true, northObserver);
+
+        Uri tom = resolver.insert(NORTH, pet("Tom", "Tabby"));
+
+        assertEquals(Arrays.asList(tom), northObserver.changes);
+        assertTrue(defaultObserver.changes.isEmpty());
+        assertEquals("shelters", tom.getPathSegments().get(0));
+    }
+
+    @Test
+    public void writeKeepsCachedResultsOfOtherShelters() {
+        resolver.insert(PetEntry.CONTENT_URI, pet("Bella", "Persian"));
+        assertEquals(1, count(PetEntry.CONTENT_URI));
+
+        resolver.insert(NORTH, pet("Tom", "Tabby"));
+        long hits = cacheHits();
+
+        assertEquals(1, count(PetEntry.CONTENT_URI));
+        assertEquals(hits + 1, cacheHits());
+        assertEquals(1, count(NORTH));
+    }
+
+    @Test
+    public void readingAShelterDoesNotCreateItsDatabase() {
+        assertEquals(0, count(NORTH));
+        assertEquals(0, count(PetEntry.withShelter(PetEntry.buildSearchUri("tom"), "north")));
+        assertEquals(0, resolver.delete(NORTH, null, null));
+        assertFalse(Arrays.asList(RuntimeEnvironment.application.databaseList()).contains("pets_north.db"));
+
+        resolver.insert(NORTH, pet("Tom", "Tabby"));
+
+        assertTrue(Arrays.asList(RuntimeEnvironment.application.databaseList()).contains("pets_north.db"));
+        assertEquals(1, count(NORTH));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void defaultShelterHasNoShelterPath() {
+        resolver.query(Uri.parse("content://com.example.android.pets/shelters/default/pets"),
+                null, null, null, null);
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = resolver.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long cacheHits() {
+        return resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_CACHE_STATS, null, null)
+                .getLong(PetContract.CACHE_STATS_HITS);
+    }
+
+    private static final class RecordingObserver extends ContentObserver {
+        final List<Uri> changes = new ArrayList<>();
+
+        RecordingObserver() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            changes.add(uri);
+        }
+    }
+}
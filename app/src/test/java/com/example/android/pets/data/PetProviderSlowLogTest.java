@@ -0,0 +1,99 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+import static com.example.android.pets.data.PetProviderBulkInsertTest.pet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderSlowLogTest {
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+        resolver.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        resolver.insert(PetEntry.CONTENT_URI, pet("Toby", "Persian"));
+//        Log every operation
+        resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_SET_SLOW_THRESHOLD, "0", null);
+    }
+
+    @Test
+    public void searchLogsTheFullTextQuery() {
+        query(PetEntry.buildSearchUri("tom"));
+
+        Bundle entry = lastEntry();
+        assertTrue(entry.getString(PetContract.SLOW_LOG_SQL),
+                entry.getString(PetContract.SLOW_LOG_SQL).contains(PetEntry.SEARCH_TABLE_NAME + " MATCH ?"));
+        assertEquals(2, entry.getInt(PetContract.SLOW_LOG_ARGUMENT_COUNT));
+        assertTrue(entry.getString(PetContract.SLOW_LOG_PLAN),
+                entry.getString(PetContract.SLOW_LOG_PLAN).contains(PetEntry.SEARCH_TABLE_NAME));
+    }
+
+    @Test
+    public void pageLogsTheKeysetQuery() {
+        query(PetEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, "10")
+                .appendQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID, "1")
+                .build());
+
+        Bundle entry = lastEntry();
+        assertTrue(entry.getString(PetContract.SLOW_LOG_SQL),
+                entry.getString(PetContract.SLOW_LOG_SQL).contains(PetEntry._ID + ">?"));
+        assertTrue(entry.getString(PetContract.SLOW_LOG_SQL),
+                entry.getString(PetContract.SLOW_LOG_SQL).endsWith("LIMIT 10"));
+        assertTrue(entry.getString(PetContract.SLOW_LOG_PLAN),
+                entry.getString(PetContract.SLOW_LOG_PLAN).contains("INTEGER PRIMARY KEY"));
+    }
+
+    @Test
+    public void deleteLogsTheStatementOnTheStorageTable() {
+        resolver.delete(PetEntry.CONTENT_URI, PetEntry.COLUMN_PET_NAME + "=?", new String[]{"Toby"});
+
+        Bundle entry = lastEntry();
+        assertEquals("delete", entry.getString(PetContract.SLOW_LOG_OPERATION));
+        assertTrue(entry.getString(PetContract.SLOW_LOG_SQL),
+                entry.getString(PetContract.SLOW_LOG_SQL).startsWith("DELETE FROM " + PetEntry.STORAGE_TABLE_NAME
+                        + " WHERE " + PetEntry._ID + " IN (SELECT"));
+        assertTrue(entry.getString(PetContract.SLOW_LOG_PLAN),
+                entry.getString(PetContract.SLOW_LOG_PLAN).contains("pet_records_name_breed_idx"));
+    }
+
+    @Test
+    public void cachedQueryHasNoStatement() {
+        query(PetEntry.CONTENT_URI);
+        query(PetEntry.CONTENT_URI);
+
+        Bundle entry = lastEntry();
+        assertTrue(entry.getString(PetContract.SLOW_LOG_SQL),
+                entry.getString(PetContract.SLOW_LOG_SQL).startsWith("no statement"));
+    }
+
+    private void query(Uri uri) {
+        Cursor cursor = resolver.query(uri, null, null, null, null);
+        cursor.close();
+    }
+
+    private Bundle lastEntry() {
+        List<Bundle> entries = resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_SLOW_LOG, null, null)
+                .<Bundle>getParcelableArrayList(PetContract.SLOW_LOG_ENTRIES);
+        return entries.get(entries.size() - 1);
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.StatsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.pets.data.PetProviderBulkInsertTest.pet;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderStatsTest {
+
+    private PetProvider provider;
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void insertsAreCounted() {
+        resolver.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        resolver.insert(PetEntry.CONTENT_URI, pet("Bella", "Persian"));
+        resolver.insert(PetEntry.CONTENT_URI, pet("Oscar", null));
+
+        assertEquals("[breed 0 1, breed Persian 1, breed Tabby 1, gender 1 3, weight 5 3]", stats());
+        assertEquals(0, checkStats());
+    }
+
+    @Test
+    public void updatesMoveThePetToItsNewBuckets() {
+        Uri tom = resolver.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        resolver.insert(PetEntry.CONTENT_URI, pet("Bella", "Persian"));
+
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 12);
+        values.put(PetEntry.COLUMN_PET_BREED, "Persian");
+        resolver.update(tom, values, null, null);
+
+//        The counts of the old buckets drop to zero, which the stats leave out
+        assertEquals("[breed Persian 2, gender 1 1, gender 2 1, weight 5 1, weight 10 1]", stats());
+        assertEquals(0, checkStats());
+    }
+
+    @Test
+    public void deletesAreSubtracted() {
+        Uri tom = resolver.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        resolver.insert(PetEntry.CONTENT_URI, pet("Bella", "Persian"));
+
+        resolver.delete(tom, null, null);
+
+        assertEquals("[breed Persian 1, gender 1 1, weight 5 1]", stats());
+        assertEquals(0, checkStats());
+    }
+
+    @Test
+    public void rebuildRepairsCorruptedStats() {
+        resolver.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        resolver.insert(PetEntry.CONTENT_URI, pet("Bella", "Persian"));
+        SQLiteDatabase db = provider.dbHelper.getWritableDatabase();
+//        One wrong count, one missing and one extra
+        db.execSQL("UPDATE " + StatsEntry.TABLE_NAME + " SET " + StatsEntry.COLUMN_COUNT + " = 7 WHERE "
+                + StatsEntry.COLUMN_KIND + " = '" + StatsEntry.KIND_GENDER + "'");
+        db.execSQL("DELETE FROM " + StatsEntry.TABLE_NAME + " WHERE "
+                + StatsEntry.COLUMN_KIND + " = '" + StatsEntry.KIND_WEIGHT + "'");
+        db.execSQL("INSERT INTO " + StatsEntry.TABLE_NAME + " VALUES ('" + StatsEntry.KIND_WEIGHT + "', 20, 1)");
+
+        assertEquals(3, checkStats());
+
+        resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_REBUILD_STATS, null, null);
+
+        assertEquals(0, checkStats());
+        assertEquals("[breed Persian 1, breed Tabby 1, gender 1 2, weight 5 2]", stats());
+    }
+
+    private long checkStats() {
+        return resolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_CHECK_STATS, null, null)
+                .getLong(PetContract.STATS_CHECK_MISMATCHES);
+    }
+
+    /**
+     * The statistics as "kind bucket count", with the label instead of the bucket where there is
+     * one, sorted by kind, label and bucket.
+     */
+    private String stats() {
+        Cursor cursor = resolver.query(StatsEntry.CONTENT_URI, new String[]{StatsEntry.COLUMN_KIND,
+                        StatsEntry.COLUMN_BUCKET, StatsEntry.COLUMN_LABEL, StatsEntry.COLUMN_COUNT}, null, null,
+                StatsEntry.COLUMN_KIND + ", " + StatsEntry.COLUMN_LABEL + ", " + StatsEntry.COLUMN_BUCKET);
+        List<String> stats = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                String bucket = cursor.isNull(2) ? cursor.getString(1) : cursor.getString(2);
+                stats.add(cursor.getString(0) + " " + bucket + " " + cursor.getLong(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        return stats.toString();
+    }
+}
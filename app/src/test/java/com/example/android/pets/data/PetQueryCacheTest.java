@@ -0,0 +1,78 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetQueryCacheTest {
+
+    private static final String SHELTER = PetEntry.DEFAULT_SHELTER;
+    private static final String KEY = PetQueryCache.key(PetEntry.CONTENT_URI, null, null, null, null);
+
+    private final PetQueryCache cache = new PetQueryCache();
+
+    @Test
+    public void queriesOfOverlappingGenerationsLandOnTheirOwn() {
+        long oldGeneration = cache.generation(SHELTER);
+        assertNull(cache.join(KEY, oldGeneration));
+        PetQueryCache.Flight oldFlight = cache.join(KEY, oldGeneration);
+        assertNotNull(oldFlight);
+
+//        A write, then the same query again while the first one still runs
+        cache.invalidate(SHELTER);
+        long newGeneration = cache.generation(SHELTER);
+        assertNull(cache.join(KEY, newGeneration));
+        PetQueryCache.Flight newFlight = cache.join(KEY, newGeneration);
+        assertNotNull(newFlight);
+        assertTrue(oldFlight != newFlight);
+
+        cache.put(SHELTER, KEY, oldGeneration, pets("Tom")).close();
+        cache.land(KEY, oldGeneration);
+
+//        Waiting for the old query ends with its rows, the new one is still running
+        assertEquals(0, oldFlight.done.getCount());
+        assertEquals("Tom", name(cache.await(oldFlight, null)));
+        assertEquals(1, newFlight.done.getCount());
+
+        cache.put(SHELTER, KEY, newGeneration, pets("Tommy")).close();
+        cache.land(KEY, newGeneration);
+
+        assertEquals("Tommy", name(cache.await(newFlight, null)));
+        assertEquals("Tommy", name(cache.get(SHELTER, KEY)));
+    }
+
+    @Test
+    public void queryAfterALandingRunsAgain() {
+        long generation = cache.generation(SHELTER);
+        assertNull(cache.join(KEY, generation));
+        cache.land(KEY, generation);
+
+        assertNull(cache.join(KEY, generation));
+    }
+
+    private static Cursor pets(String name) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{PetEntry.COLUMN_PET_NAME});
+        cursor.addRow(new Object[]{name});
+        return cursor;
+    }
+
+    private static String name(Cursor cursor) {
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetShardsTest {
+
+    private static final String[] SHELTERS = {"east", "north", "south"};
+    private static final int SHARDS = SHELTERS.length + 1;
+
+    @Test
+    public void queryCoversEveryShelterInOrder() {
+        PetShards shards = createShards(new PetShards(RuntimeEnvironment.application, defaultShard()));
+
+        Cursor cursor = shards.queryAll("SELECT " + PetEntry._ID + " FROM " + PetEntry.STORAGE_TABLE_NAME
+                + " WHERE " + PetEntry._ID + " <= 2 ORDER BY " + PetEntry._ID, null, PetEntry._ID, null);
+        try {
+            assertEquals(2 * SHARDS, cursor.getCount());
+            int shelterColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_SHELTER);
+            cursor.moveToFirst();
+            assertEquals(PetEntry.DEFAULT_SHELTER, cursor.getString(shelterColumn));
+            assertEquals(1, cursor.getLong(0));
+            cursor.moveToLast();
+            assertEquals("south", cursor.getString(shelterColumn));
+            assertEquals(2, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void cancellingStopsTheQueriesOfAllShards() throws Exception {
+        final StoppableShards shards = createShards(new StoppableShards(RuntimeEnvironment.application, defaultShard()));
+        final CancellationSignal signal = new CancellationSignal();
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Thread query = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    shards.queryAll("SELECT 1", null, null, signal).close();
+                } catch (RuntimeException e) {
+                    failure.set(e);
+                }
+            }
+        };
+        query.start();
+        assertTrue(shards.started.await(5, TimeUnit.SECONDS));
+
+        signal.cancel();
+        query.join(10000);
+
+//        With one signal shared by all shards only the listener set last is called, like in SQLite
+        assertEquals(SHARDS, shards.stopped.get());
+        assertTrue(failure.get() instanceof OperationCanceledException);
+    }
+
+    @Test
+    public void mixedCaseNamesAreMergedInTheCollationOfTheSortOrder() {
+        PetShards shards = new PetShards(RuntimeEnvironment.application, defaultShard());
+        insertNames(shards.get(PetEntry.DEFAULT_SHELTER, true), "alice", "Bob", "\uFF21pple");
+        insertNames(shards.get("north", true), "Anna", "bert", "\uD83D\uDC31");
+        insertNames(shards.get("south", true), "Carl", "ann", "alfred");
+        PetDbHelper all = new PetDbHelper(RuntimeEnvironment.application, null, false);
+        insertNames(all, "alice", "Bob", "\uFF21pple", "Anna", "bert", "\uD83D\uDC31", "Carl", "ann", "alfred");
+
+//        The cat is after the full-width A in SQLite, but before it for String.compareTo
+        for (String collation : new String[]{"BINARY", "NOCASE"}) {
+            String sortOrder = PetEntry.COLUMN_PET_NAME + " COLLATE " + collation;
+            String sql = "SELECT " + PetEntry.COLUMN_PET_NAME + " FROM " + PetEntry.STORAGE_TABLE_NAME
+                    + " ORDER BY " + sortOrder;
+            assertEquals(collation, names(all.getReadableDatabase().rawQuery(sql, null)),
+                    names(shards.queryAll(sql, null, sortOrder, null)));
+        }
+    }
+
+    @Test
+    public void interruptedQueryClosesTheCursorsOfAllShards() throws Exception {
+        final BlockingShards shards = new BlockingShards(RuntimeEnvironment.application, defaultShard());
+        createShards(shards);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Thread query = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    shards.queryAll("SELECT 1", null, null, null).close();
+                } catch (RuntimeException e) {
+                    failure.set(e);
+                }
+            }
+        };
+        query.start();
+        assertTrue(shards.started.await(5, TimeUnit.SECONDS));
+
+        query.interrupt();
+        query.join(10000);
+        assertTrue(failure.get() instanceof IllegalStateException);
+
+//        The shards only finish now, after the query gave up on them
+        shards.release.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (shards.closed.get() < SHARDS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(SHARDS, shards.closed.get());
+    }
+
+    @Test(expected = OperationCanceledException.class)
+    public void cancelledSignalStopsTheQueryBeforeItRuns() {
+        PetShards shards = createShards(new PetShards(RuntimeEnvironment.application, defaultShard()));
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+
+        shards.queryAll("SELECT " + PetEntry._ID + " FROM " + PetEntry.STORAGE_TABLE_NAME, null, null, signal);
+    }
+
+    /**
+     * Shard queries that wait until their signal calls its listener, the way SQLite listens for
+     * the signal to interrupt a running statement.
+     */
+    private static final class StoppableShards extends PetShards {
+        final CountDownLatch started = new CountDownLatch(SHARDS);
+        final AtomicInteger stopped = new AtomicInteger();
+
+        StoppableShards(Context context, PetDbHelper defaultShard) {
+            super(context, defaultShard);
+        }
+
+        @Override
+        Cursor queryShard(String shelter, String sql, String[] selectionArgs, CancellationSignal cancellationSignal) {
+            final CountDownLatch cancelled = new CountDownLatch(1);
+            cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    cancelled.countDown();
+                }
+            });
+            started.countDown();
+            try {
+                if (!cancelled.await(2, TimeUnit.SECONDS)) {
+                    return new MatrixCursor(new String[]{"n"});
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                cancellationSignal.setOnCancelListener(null);
+            }
+            stopped.incrementAndGet();
+            throw new OperationCanceledException();
+        }
+    }
+
+    /**
+     * Shard queries that wait until they are released and count how many of their cursors are
+     * closed.
+     */
+    private static final class BlockingShards extends PetShards {
+        final CountDownLatch started = new CountDownLatch(SHARDS);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger closed = new AtomicInteger();
+
+        BlockingShards(Context context, PetDbHelper defaultShard) {
+            super(context, defaultShard);
+        }
+
+        @Override
+        Cursor queryShard(String shelter, String sql, String[] selectionArgs, CancellationSignal cancellationSignal) {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new MatrixCursor(new String[]{"n"}) {
+                @Override
+                public void close() {
+                    if (!isClosed()) {
+                        closed.incrementAndGet();
+                    }
+                    super.close();
+                }
+            };
+        }
+    }
+
+    private static PetDbHelper defaultShard() {
+        return new PetDbHelper(RuntimeEnvironment.application, true);
+    }
+
+    private static <T extends PetShards> T createShards(T shards) {
+        insertPets(shards.get(PetEntry.DEFAULT_SHELTER, true), 3);
+        for (String shelter : SHELTERS) {
+            insertPets(shards.get(shelter, true), 3);
+        }
+        return shards;
+    }
+
+    private static void insertPets(PetDbHelper shard, int count) {
+        SQLiteDatabase database = shard.getWritableDatabase();
+        for (int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_NAME, "Pet " + i);
+            values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+            database.insert(PetEntry.STORAGE_TABLE_NAME, null, values);
+        }
+    }
+
+    private static void insertNames(PetDbHelper shard, String... names) {
+        SQLiteDatabase database = shard.getWritableDatabase();
+        for (String name : names) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_NAME, name);
+            values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+            database.insert(PetEntry.STORAGE_TABLE_NAME, null, values);
+        }
+    }
+
+    private static List<String> names(Cursor cursor) {
+        List<String> names = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+}
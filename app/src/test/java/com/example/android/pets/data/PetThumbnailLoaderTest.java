@@ -0,0 +1,91 @@
+package com.example.android.pets.data;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.widget.ImageView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowBitmap;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = PetThumbnailLoaderTest.AllocatedBitmap.class)
+public class PetThumbnailLoaderTest {
+
+    private static final int THUMBNAIL_SIZE = 100;
+
+    /**
+     * Robolectric's bitmaps have no allocation, so the loader would find none of them large
+     * enough to reuse.
+     */
+    @Implements(Bitmap.class)
+    public static class AllocatedBitmap extends ShadowBitmap {
+        @Implementation
+        public int getAllocationByteCount() {
+            return getWidth() * getHeight() * 4;
+        }
+    }
+
+    /**
+     * Finds a thumbnail of {@link #THUMBNAIL_SIZE} pixels that can't be decoded, like a cancelled
+     * decode.
+     */
+    private static class FailingLoader extends PetThumbnailLoader {
+        final CountDownLatch decoded = new CountDownLatch(1);
+
+        FailingLoader() {
+            super(RuntimeEnvironment.application);
+        }
+
+        @Override
+        Bitmap decodeStream(Uri uri, BitmapFactory.Options options) {
+            options.outWidth = THUMBNAIL_SIZE;
+            options.outHeight = THUMBNAIL_SIZE;
+            if (!options.inJustDecodeBounds) {
+                decoded.countDown();
+            }
+            return null;
+        }
+    }
+
+    @Test
+    public void oneLoaderPerProcess() {
+        assertSame(PetThumbnailLoader.getInstance(RuntimeEnvironment.application),
+                PetThumbnailLoader.getInstance(RuntimeEnvironment.application));
+    }
+
+    @Test
+    public void bitmapOfAFailedDecodeCanBeReusedAgain() throws Exception {
+        FailingLoader loader = new FailingLoader();
+        Bitmap reusable = Bitmap.createBitmap(THUMBNAIL_SIZE, THUMBNAIL_SIZE, Bitmap.Config.ARGB_8888);
+        loader.reusableBitmaps.add(reusable);
+
+        loader.load(1, 1, new ImageView(RuntimeEnvironment.application));
+
+//        The decode runs on a thread of the loader, it takes the bitmap and has to give it back
+        assertTrue(loader.decoded.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!pooled(loader, reusable) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(pooled(loader, reusable));
+    }
+
+    private static boolean pooled(PetThumbnailLoader loader, Bitmap bitmap) {
+        synchronized (loader.reusableBitmaps) {
+            return loader.reusableBitmaps.contains(bitmap);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.pets.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.example.android.pets.data.PetDbHelperWalTest.insertPets;
+
+/**
+ * Latency of reading a pet by id on the smallest table size, once with nothing else running and
+ * once while another thread keeps committing inserts. With write-ahead logging the two should be
+ * close, without it every read waits for the running write transaction.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetWalBenchmark {
+
+    private static final int WRITE_TRANSACTION_ROWS = 50;
+
+    private PetDbHelper helper;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        helper = new PetDbHelper(RuntimeEnvironment.application, true);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        helper.close();
+    }
+
+    @Test
+    public void readLatencyWhileWriting() throws Exception {
+        BenchmarkReport report = new BenchmarkReport(PetWalBenchmark.class);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        int rows = BenchmarkReport.rowCounts()[0];
+        db.beginTransaction();
+        try {
+            insertPets(db, rows);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        long start = System.nanoTime();
+        long[] idle = readLatencies(rows);
+        report.add("read_pet_id_idle", rows, idle, System.nanoTime() - start);
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        Future<?> writer = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                while (writing.get()) {
+                    db.beginTransaction();
+                    try {
+                        insertPets(db, WRITE_TRANSACTION_ROWS);
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+                return null;
+            }
+        });
+        long[] busy;
+        start = System.nanoTime();
+        try {
+            busy = readLatencies(rows);
+        } finally {
+            writing.set(false);
+        }
+        long elapsed = System.nanoTime() - start;
+        writer.get(10, TimeUnit.SECONDS);
+        report.add("read_pet_id_while_writing", rows, busy, elapsed);
+        report.write();
+    }
+
+    /**
+     * Latencies of reading single pets by id, spread over the first rows of the table.
+     */
+    private long[] readLatencies(int rows) {
+        SQLiteDatabase db = helper.getReadableDatabase();
+        long[] latencies = new long[BenchmarkReport.operations()];
+        for (int i = 0; i < latencies.length; i++) {
+            long start = System.nanoTime();
+            DatabaseUtils.stringForQuery(db, "SELECT " + PetEntry.COLUMN_PET_NAME + " FROM "
+                    + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + " = ?",
+                    new String[]{String.valueOf(i % rows + 1)});
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.pets.data.PetProviderBulkInsertTest.pet;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Ways of writing many pets compared with inserting them one by one: bulk inserts and imports
+ * from CSV. Each way starts from an empty table and writes the same pets. Inserts call the
+ * provider directly, see {@link PetProviderBenchmark}, the importer needs the content resolver.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetWriteBenchmark {
+
+    private static final int BULK_CHUNK = 1000;
+
+    private PetProvider provider;
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void waysOfWritingManyPets() throws Exception {
+        BenchmarkReport report = new BenchmarkReport(PetWriteBenchmark.class);
+        int rows = BenchmarkReport.batchRows();
+        ContentValues[] pets = new ContentValues[rows];
+        StringBuilder csv = new StringBuilder("name,breed,gender,weight\n");
+        for (int i = 0; i < rows; i++) {
+            pets[i] = pet("Pet " + i, "Breed " + (i % 50));
+            csv.append("Pet ").append(i).append(",Breed ").append(i % 50).append(",1,5\n");
+        }
+
+        long[] latencies = new long[rows];
+        long start = System.nanoTime();
+        for (int i = 0; i < rows; i++) {
+            long operationStart = System.nanoTime();
+            provider.insert(PetEntry.CONTENT_URI, pets[i]);
+            latencies[i] = System.nanoTime() - operationStart;
+        }
+        long elapsed = System.nanoTime() - start;
+        addRowRate(report.add("insert_per_row", rows, latencies, elapsed), rows, elapsed);
+        clear(rows);
+
+        latencies = new long[(rows + BULK_CHUNK - 1) / BULK_CHUNK];
+        start = System.nanoTime();
+        for (int chunk = 0; chunk < latencies.length; chunk++) {
+            ContentValues[] chunkPets = Arrays.copyOfRange(pets, chunk * BULK_CHUNK,
+                    Math.min(rows, (chunk + 1) * BULK_CHUNK));
+            long operationStart = System.nanoTime();
+            provider.bulkInsert(PetEntry.CONTENT_URI, chunkPets);
+            latencies[chunk] = System.nanoTime() - operationStart;
+        }
+        elapsed = System.nanoTime() - start;
+        addRowRate(report.add("bulk_insert_" + BULK_CHUNK, rows, latencies, elapsed), rows, elapsed);
+        clear(rows);
+
+        start = System.nanoTime();
+        PetImporter.Result result = new PetImporter(resolver, "benchmark", PetImporter.DEFAULT_BATCH_SIZE, null)
+                .importFrom(new StringReader(csv.toString()));
+        elapsed = System.nanoTime() - start;
+        assertEquals(rows, result.rowsImported);
+        addRowRate(report.add("import_csv_" + PetImporter.DEFAULT_BATCH_SIZE, rows, new long[]{elapsed}, elapsed),
+                rows, elapsed);
+        clear(rows);
+
+        report.write();
+    }
+
+    /**
+     * Add the rows written per second, the figure to compare the ways of writing by.
+     */
+    private static void addRowRate(JSONObject result, int rows, long elapsedNanos) throws JSONException {
+        result.put("rows_per_second", rows * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+    }
+
+    /**
+     * Check that all rows were written, then empty the table for the next way of writing them.
+     */
+    private void clear(int rows) {
+        assertEquals(rows, DatabaseUtils.queryNumEntries(provider.dbHelper.getReadableDatabase(),
+                PetEntry.STORAGE_TABLE_NAME));
+        provider.delete(PetEntry.CONTENT_URI, null, null);
+    }
+}
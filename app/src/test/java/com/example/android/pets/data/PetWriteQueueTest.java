@@ -0,0 +1,172 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.example.android.pets.data.PetProviderBulkInsertTest.pet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PetWriteQueueTest {
+
+    /**
+     * Remembers the threads the provider is called on.
+     */
+    public static class RecordingProvider extends PetProvider {
+        static final List<Thread> writeThreads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        @Override
+        public Uri insert(Uri uri, ContentValues contentValues) {
+            writeThreads.add(Thread.currentThread());
+            return super.insert(uri, contentValues);
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+            writeThreads.add(Thread.currentThread());
+            return super.update(uri, contentValues, selection, selectionArgs);
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            writeThreads.add(Thread.currentThread());
+            return super.delete(uri, selection, selectionArgs);
+        }
+    }
+
+    private PetProvider provider;
+    private PetWriteQueue queue;
+    private final List<String> results = new ArrayList<>();
+    private final List<Thread> callbackThreads = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        RecordingProvider.writeThreads.clear();
+        provider = Robolectric.setupContentProvider(RecordingProvider.class, PetContract.CONTENT_AUTHORITY);
+        queue = new PetWriteQueue(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void updatesOfTheSamePetWaitingTogetherAreMerged() {
+        Uri petUri = RuntimeEnvironment.application.getContentResolver()
+                .insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+        long updatesBefore = updates();
+
+//        Hold the writer lock, so the queue is stuck on its first write while the others are queued
+        SQLiteDatabase database = provider.dbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            queue.insert(PetEntry.CONTENT_URI, pet("Bella", "Persian"), callback("insert"));
+            ContentValues name = new ContentValues();
+            name.put(PetEntry.COLUMN_PET_NAME, "Tommy");
+            queue.update(petUri, name, callback("name"));
+            ContentValues weight = new ContentValues();
+            weight.put(PetEntry.COLUMN_PET_WEIGHT, 7);
+            queue.update(petUri, weight, callback("weight"));
+        } finally {
+            database.endTransaction();
+        }
+        awaitResults(3);
+
+        assertEquals("[insert true, name true, weight true]", results.toString());
+        assertEquals(1, updates() - updatesBefore);
+        Cursor cursor = provider.query(petUri, new String[]{PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_WEIGHT},
+                null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Tommy", cursor.getString(0));
+            assertEquals(7, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void updateQueuedAfterADeleteIsNotMergedIntoAnEarlierOne() {
+        Uri petUri = RuntimeEnvironment.application.getContentResolver()
+                .insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"));
+
+        SQLiteDatabase database = provider.dbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            ContentValues name = new ContentValues();
+            name.put(PetEntry.COLUMN_PET_NAME, "Tommy");
+            queue.update(petUri, name, callback("update"));
+            queue.delete(petUri, callback("delete"));
+            queue.update(petUri, name, callback("late update"));
+        } finally {
+            database.endTransaction();
+        }
+        awaitResults(3);
+
+//        Merged into the first update the last one would have run before the delete and succeeded
+        assertEquals("[update true, delete true, late update false]", results.toString());
+    }
+
+    @Test
+    public void writesRunInTheBackgroundAndResultsArriveOnTheMainThread() {
+        Thread mainThread = Thread.currentThread();
+
+        queue.insert(PetEntry.CONTENT_URI, pet("Tom", "Tabby"), callback("insert"));
+        awaitResults(1);
+        Uri petUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1);
+        ContentValues name = new ContentValues();
+        name.put(PetEntry.COLUMN_PET_NAME, "Tommy");
+        queue.update(petUri, name, callback("update"));
+        queue.delete(petUri, callback("delete"));
+        awaitResults(3);
+
+        assertEquals("[insert true, update true, delete true]", results.toString());
+        assertEquals(3, RecordingProvider.writeThreads.size());
+        for (Thread thread : RecordingProvider.writeThreads) {
+            assertFalse("The provider was written on the main thread", thread == mainThread);
+        }
+        for (Thread thread : callbackThreads) {
+            assertTrue("A result arrived on another thread", thread == mainThread);
+        }
+    }
+
+    private PetWriteQueue.Callback callback(final String name) {
+        return new PetWriteQueue.Callback() {
+            @Override
+            public void onWriteFinished(boolean success, Uri uri) {
+                callbackThreads.add(Thread.currentThread());
+                results.add(name + " " + success);
+            }
+        };
+    }
+
+    private long updates() {
+        Bundle metrics = provider.call(PetContract.METHOD_METRICS, null, null);
+        return metrics.getLong("update.pet_id." + PetContract.METRICS_COUNT);
+    }
+
+    private void awaitResults(int count) {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (results.size() < count && System.currentTimeMillis() < deadline) {
+            ShadowLooper.runUiThreadTasks();
+            Thread.yield();
+        }
+        assertEquals(count, results.size());
+    }
+}